@@ -0,0 +1,58 @@
+package openstim.audio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+* Packing float blocks into interleaved PCM, one block of frames per call.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PCMPackerBenchmark {
+	private static final int FRAMES = 4096;
+
+	@Param({ "8", "16", "24" })
+	public int sampleSize;
+
+	@Param({ "1", "2", "8" })
+	public int channels;
+
+	@Param({ "false", "true" })
+	public boolean bigEndian;
+
+	private PCMPacker packer;
+	private float[][] block;
+	private byte[] buffer;
+
+	@Setup
+	public void setup() {
+		packer = new PCMPacker(new AudioFormat(44100.0f, sampleSize, channels, true, bigEndian));
+		block = new float[channels][FRAMES];
+		buffer = new byte[FRAMES * packer.getFrameSize()];
+
+		// slightly beyond full scale, so that clipping is part of it
+		final Random random = new Random(1);
+		for (int channel = 0; channel < channels; channel++) {
+			for (int i = 0; i < FRAMES; i++) {
+				block[channel][i] = 1.1f * (2.0f * random.nextFloat() - 1.0f);
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] pack() {
+		packer.pack(block, 0, FRAMES, buffer, 0);
+		return buffer;
+	}
+}
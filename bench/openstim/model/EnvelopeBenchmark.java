@@ -0,0 +1,54 @@
+package openstim.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+* Envelope of an interval, one block of samples per call.
+* Intervals no longer step themselves, the per-sample values come from the
+* generator following them. Short intervals change segments within a block.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnvelopeBenchmark {
+	private static final int BLOCK_SIZE = 1024;
+
+	@Param({ "0.5,2,0.5,1", "0.001,0.002,0.001,0.002", "0,1,0,0" })
+	public String interval;
+
+	private EnvelopeGenerator envelope;
+	private float[] block;
+
+	@Setup
+	public void setup() {
+		final String[] times = interval.split(",");
+		final Interval iv = new Interval();
+		for (int i = 0; i < times.length; i++) {
+			iv.setParam(i, Float.parseFloat(times[i]));
+		}
+		envelope = new EnvelopeGenerator(44100.0f);
+		envelope.setInterval(iv);
+		block = new float[BLOCK_SIZE];
+	}
+
+	@Benchmark
+	public float[] nextBlock() {
+		envelope.nextBlock(block, 0, BLOCK_SIZE);
+		return block;
+	}
+
+	@Benchmark
+	public EnvelopeGenerator skip() {
+		envelope.skip(BLOCK_SIZE);
+		return envelope;
+	}
+}
@@ -0,0 +1,54 @@
+package openstim.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+* Interpolated values after an edit. Changing a duration moves every track
+* and updates all interpolated values, changing a parameter only updates the
+* tracks between its explicit neighbours. Both publish a new snapshot.
+* Setting up the largest session takes a while, so there is a single fork.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class InterpolationBenchmark {
+	private static final int FREQ_ROW = 2 + ParameterTable.KEY_BASE_FREQ;
+
+	@Param({ "10", "1000", "10000" })
+	public int tracks;
+
+	private ScheduledSession session;
+	private int track;
+	private float value;
+
+	@Setup
+	public void setup() throws Exception {
+		session = Sessions.create(tracks, 2);
+		track = tracks / 2 - 1;
+	}
+
+	@Benchmark
+	public ScheduledSession updateAll() {
+		value = (value == 30.0f ? 31.0f : 30.0f);
+		session.setValueAt(value, 0, track);
+		return session;
+	}
+
+	@Benchmark
+	public ScheduledSession updateOne() {
+		value = (value == 300.0f ? 310.0f : 300.0f);
+		session.setValueAt(value, FREQ_ROW, track);
+		return session;
+	}
+}
@@ -0,0 +1,39 @@
+package openstim.model;
+
+/**
+* Sessions for the benchmarks, filled the way a user would: every third
+* track sets its own interval, waveform, frequency and amplitude and the
+* tracks in between are interpolated. Tracks keep their default duration,
+* changing it would update all interpolated values each time.
+*/
+
+final class Sessions {
+	private Sessions() {
+	}
+
+	public static ScheduledSession create(int tracks, int channels) throws Exception {
+		final ScheduledSession session = new ScheduledSession();
+		session.setNumChannels(channels);
+		while (session.getColumnCount() > 2) session.deleteTrack(1);
+		while (session.getColumnCount() < tracks) session.insertTrack(session.getColumnCount() - 1);
+
+		for (int channel = 0; channel < session.getNumChannels(); channel++) {
+			final int row = 2 + channel * ParameterTable.KEYS_PER_CHANNEL;
+			for (int track = 0; track < tracks; track += 3) {
+				final Interval interval = new Interval();
+				interval.t_attack = 0.5f;
+				interval.t_on = 2.0f;
+				interval.t_release = 0.5f;
+				interval.t_off = 1.0f;
+				session.setValueAt(interval, row + ParameterTable.KEY_INTERVAL, track);
+
+				final Waveform waveform = new Waveform();
+				waveform.assign(track % 2 == 0 ? "square,80;sine,20" : "sawtooth");
+				session.setValueAt(waveform, row + ParameterTable.KEY_BASE_WAVE, track);
+				session.setValueAt(200.0f + 300.0f * ((track * 7 + channel) % 5), row + ParameterTable.KEY_BASE_FREQ, track);
+				session.setValueAt(40.0f + 10.0f * (track % 4), row + ParameterTable.KEY_BASE_AMPL, track);
+			}
+		}
+		return session;
+	}
+}
@@ -0,0 +1,57 @@
+package openstim.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+* Saving and loading a session file of the given number of tracks.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageBenchmark {
+	@Param({ "10", "1000" })
+	public int tracks;
+
+	private ScheduledSession session;
+	private File storeFile;
+	private File loadFile;
+
+	@Setup
+	public void setup() throws Exception {
+		session = Sessions.create(tracks, 2);
+		storeFile = File.createTempFile("openstim-bench", ".xml");
+		loadFile = File.createTempFile("openstim-bench", ".xml");
+		session.store(loadFile);
+	}
+
+	@TearDown
+	public void tearDown() {
+		storeFile.delete();
+		loadFile.delete();
+	}
+
+	@Benchmark
+	public File store() throws IOException {
+		session.store(storeFile);
+		return storeFile;
+	}
+
+	@Benchmark
+	public ScheduledSession load() throws IOException {
+		final ScheduledSession loaded = new ScheduledSession();
+		loaded.load(loadFile);
+		return loaded;
+	}
+}
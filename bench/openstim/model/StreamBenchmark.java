@@ -0,0 +1,57 @@
+package openstim.model;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+* Rendering a session into PCM, one block of frames per call.
+* Every output channel has its own voice; the stream starts over at its end.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamBenchmark {
+	private static final int FRAMES = 4096;
+
+	@Param({ "22050", "44100", "48000" })
+	public int sampleRate;
+
+	@Param({ "8", "16" })
+	public int sampleSize;
+
+	@Param({ "1", "2", "4", "8" })
+	public int channels;
+
+	private SessionStream stream;
+	private byte[] buffer;
+	private float[][] block;
+
+	@Setup
+	public void setup() throws Exception {
+		final ScheduledSession session = Sessions.create(10, channels);
+		stream = session.getStream(sampleRate, sampleSize, channels, null);
+		buffer = new byte[FRAMES * stream.getFormat().getFrameSize()];
+		block = new float[channels][FRAMES];
+	}
+
+	@Benchmark
+	public byte[] read() throws IOException {
+		if (stream.read(buffer, 0, buffer.length) < 0) stream.rewind();
+		return buffer;
+	}
+
+	@Benchmark
+	public float[][] readFloat() {
+		if (stream.read(block, 0, FRAMES) < 0) stream.rewind();
+		return block;
+	}
+}
@@ -0,0 +1,45 @@
+package openstim.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+* Rendering of a single cycle table for each shape.
+* render() returns the shared table once it is cached, so the table itself
+* is measured through renderSamples() and the cached path separately.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaveformBenchmark {
+	@Param({ "SINE", "SQUARE", "TRIANGLE", "BIPOLAR", "UNIPOLAR", "SAWTOOTH" })
+	public Waveform.Shape shape;
+
+	private Waveform waveform;
+
+	@Setup
+	public void setup() {
+		waveform = new Waveform();
+		waveform.setShape(0, shape);
+		waveform.setSpeed(0, 1.0f);
+		waveform.setPhase(0, 0.25f);
+	}
+
+	@Benchmark
+	public float[] renderSamples() {
+		return waveform.renderSamples();
+	}
+
+	@Benchmark
+	public float[] renderCached() {
+		return new Waveform(waveform).render();
+	}
+}
@@ -12,6 +12,8 @@ import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.ByteArrayInputStream;
@@ -27,6 +29,7 @@ import javax.sound.sampled.Line;
 import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComponent;
@@ -43,19 +46,29 @@ import javax.swing.KeyStroke;
 import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.event.TableModelEvent;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
+import openstim.audio.FlacEncoder;
+import openstim.audio.ParallelExporter;
 import openstim.dialogs.PlaybackSettings;
+import openstim.dialogs.RenderStatus;
 import openstim.model.*;
 import openstim.table.*;
 import openstim.tools.*;
 
 public class GUI extends JFrame implements ActionListener {
 	public static final Image APP_ICON = new ImageIcon(GUI.class.getResource("images/appicon.png")).getImage();
+	private static final Color PLAYHEAD_COLOR = new Color(255, 160, 0, 48);
+	private static final float PREVIOUS_GRACE = 1.0f;
+	private static final float NEXT_GRACE = 0.05f;
 
 	private JTable table;
+	private JLabel statusLabel;
+	private RenderStatus renderStatus;
+	private int playheadColumn = -1;
 	private PlaybackManager playbackManager;
 	private ScheduledSession session;
 	private Settings settings;
@@ -130,6 +143,7 @@ public class GUI extends JFrame implements ActionListener {
 		content.add(toolbar, BorderLayout.NORTH);
 
 		session = new ScheduledSession();
+		playbackManager.setSession(session);
 		table = new JTable(session) {
 			@Override
 			public Dimension getPreferredScrollableViewportSize() {
@@ -174,6 +188,16 @@ public class GUI extends JFrame implements ActionListener {
 				}
 			}
 
+			@Override
+			protected void paintComponent(Graphics g) {
+				super.paintComponent(g);
+				if (playheadColumn >= 0 && playheadColumn < getColumnCount()) {
+					Rectangle r = getCellRect(0, playheadColumn, true);
+					g.setColor(PLAYHEAD_COLOR);
+					g.fillRect(r.x, 0, r.width, getHeight());
+				}
+			}
+
 			@Override
 			public Component prepareRenderer(TableCellRenderer renderer, int row, int col) {
 				Component c = super.prepareRenderer(renderer, row, col);
@@ -219,6 +243,29 @@ public class GUI extends JFrame implements ActionListener {
 		pane.getViewport().setBackground(table.getBackground());
 		content.add(pane, BorderLayout.CENTER);
 
+		statusLabel = new JLabel(" ");
+		statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+		statusLabel.setToolTipText("Click for render details");
+		statusLabel.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (renderStatus == null) renderStatus = new RenderStatus(GUI.this, playbackManager);
+				renderStatus.setLocationRelativeTo(GUI.this);
+				renderStatus.setVisible(true);
+			}
+		});
+		content.add(statusLabel, BorderLayout.SOUTH);
+		new Timer(500, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				updateStatus();
+			}
+		}).start();
+		new Timer(1000 / 60, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				updatePlayhead();
+			}
+		}).start();
+
 		setContentPane(content);
 		pack();
 
@@ -229,6 +276,41 @@ public class GUI extends JFrame implements ActionListener {
 		//setExtendedState(frame.getExtendedState() | JFrame.MAXIMIZED_BOTH);
 	}
 
+	private void updateStatus() {
+		final int tenth = Math.max(0, Math.round(10.0f * playbackManager.getPosition()));
+		final RenderMetrics metrics = playbackManager.getMetrics();
+		statusLabel.setText(String.format(
+			"%s %d:%02d.%d - buffer %d ms, latency %d ms (%d%% full), %d underruns - render %.1f%% of realtime, %d deadline misses",
+			playbackManager.isPlaying() ? "Playing" : "Stopped",
+			tenth / 600, (tenth / 10) % 60, tenth % 10,
+			Math.round(playbackManager.getBufferTime() * 1000.0f),
+			Math.round(playbackManager.getLatency() * 1000.0f),
+			Math.round(playbackManager.getBufferFill() * 100.0f),
+			playbackManager.getUnderruns(),
+			100.0f * metrics.getRecentRealtimeRatio(),
+			metrics.getDeadlineMisses()
+		));
+	}
+
+	/**
+	* Highlight the column of the track which is audible right now.
+	*/
+
+	private void updatePlayhead() {
+		final float position = playbackManager.getPosition();
+		final int column = (position < 0.0f ? -1 : session.getTrackAt(position));
+		if (column == playheadColumn) return;
+		repaintColumn(playheadColumn);
+		playheadColumn = column;
+		repaintColumn(playheadColumn);
+	}
+
+	private void repaintColumn(int column) {
+		if (column < 0 || column >= table.getColumnCount()) return;
+		Rectangle r = table.getCellRect(0, column, true);
+		table.repaint(r.x, 0, r.width, table.getHeight());
+	}
+
 	private JComponent createToolbarButton(String action, String icon, String text) {
 		ImageIcon img = new ImageIcon(getClass().getResource(String.format("images/%s.png", icon)));
 		JButton btn = new JButton(img);
@@ -267,6 +349,30 @@ public class GUI extends JFrame implements ActionListener {
 			playbackManager.play();
 		} else if (e.getActionCommand().equals("pause")) {
 			playbackManager.stop();
+		} else if (e.getActionCommand().equals("first")) {
+			playbackManager.jump(0.0f);
+		} else if (e.getActionCommand().equals("previous")) {
+			doJump(-1);
+		} else if (e.getActionCommand().equals("next")) {
+			doJump(1);
+		}
+	}
+
+	/**
+	* Jump to the slot before or after the position the transport is heading for.
+	* Shortly after a slot, going back skips it so that repeated jumps get anywhere.
+	*/
+
+	private void doJump(int direction) {
+		final float position = Math.max(0.0f, playbackManager.getTargetPosition());
+		if (direction < 0) {
+			int track = session.getColumnCount() - 1;
+			while (track > 0 && session.getTrackTime(track) > position - PREVIOUS_GRACE) track--;
+			playbackManager.jump(session.getTrackTime(track));
+		} else {
+			int track = 0;
+			while (track < session.getColumnCount() && session.getTrackTime(track) <= position + NEXT_GRACE) track++;
+			if (track < session.getColumnCount()) playbackManager.jump(session.getTrackTime(track));
 		}
 	}
 
@@ -335,6 +441,7 @@ public class GUI extends JFrame implements ActionListener {
 		dlg.setFileHidingEnabled(true);
 		dlg.setMultiSelectionEnabled(false);
 		dlg.setAcceptAllFileFilterUsed(true);
+		dlg.addChoosableFileFilter(new FileExtensionFilter("flac", "FLAC audio file"));
 		dlg.setFileFilter(new FileExtensionFilter("wav", "PCM wave file"));
 		int result = dlg.showSaveDialog(this);
 		if (result != JFileChooser.APPROVE_OPTION) return;
@@ -345,16 +452,17 @@ public class GUI extends JFrame implements ActionListener {
 		setEnabled(false);
 
 		final ProgressMonitor monitor = new ProgressMonitor(null, "Exporting session to audio file", "", 0, 100);
-		final AudioInputStream audioStream = session.getStream(44100, 16, 2, monitor);
+		final AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
 		final File file = dlg.getSelectedFile();
+		final boolean flac = file.getName().toLowerCase().endsWith(".flac");
 
 		final Thread thread = new Thread() {
 			public void run() {
 				try {
-					AudioSystem.write(audioStream, AudioFileFormat.Type.WAVE, file);
-					if (monitor.isCanceled()) {
-						file.delete();
-						throw new IOException("Canceled by user.");
+					if (flac) {
+						new FlacEncoder(format).encode(session.getStream(format, null), file, monitor);
+					} else {
+						new ParallelExporter(session, format).export(file, monitor);
 					}
 				} catch (IOException e) {
 					JOptionPane.showMessageDialog(
@@ -1,29 +1,114 @@
-
 package openstim;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 import javax.swing.JOptionPane;
+import openstim.audio.PCMPacker;
+import openstim.audio.RingBuffer;
+import openstim.model.Session;
+import openstim.model.SessionStream;
+
+/**
+* Playback of the session on the configured line.
+* A render thread reads the session stream into a ring buffer and a writer
+* thread feeds the line from it, so the line never waits for a slow block
+* and rendering never waits for the device. Playback fades in on start
+* and out on stop, and a stopped session resumes where it left off.
+* The writer watches the fill level of the line before every block, an
+* empty line after the first block means the device ran dry.
+* To tell what is audible, the writer records a marker pairing a line frame
+* with a session frame wherever the session does not continue seamlessly,
+* the frame position of the line is mapped back through the last marker.
+* Jumps are handed to the render thread, which seeks a second stream in the
+* background and, once it is there, crossfades from the old position to the
+* new one at a block boundary. The renderer tells the writer where in the
+* ring the new position starts, so the markers follow the jump.
+* The render thread times every block, the metrics are published as an MBean.
+*/
+
+public class PlaybackManager {
+	private static final float BUFFER_SECONDS = 0.25f;
+	private static final float FADE_SECONDS = 0.01f;
+	private static final float CROSSFADE_SECONDS = 0.02f;
+	private static final int RENDER_FRAMES = 1024;
+	private static final int MARKERS = 16;
+	private static final int SPLICES = 16;
 
-public class PlaybackManager implements Runnable {
 	private Settings settings;
-	private SourceDataLine dataLine = null;
-	private Thread thread = null;
-	private boolean running = false;
+	private Session session = null;
+	private SessionStream stream = null;
+	private SessionStream spare = null;
+	private final ExecutorService seeker;
+	private final RenderMetrics metrics = new RenderMetrics();
+	private volatile SourceDataLine dataLine = null;
+	private RingBuffer ring = null;
+	private Thread renderThread = null;
+	private Thread writerThread = null;
+	private volatile boolean running = false;
+	private volatile boolean rendering = false;
+	private volatile boolean writing = false;
+
+	// written by the writer thread only
+	private volatile int underruns = 0;
+	private volatile float latency = 0.0f;
+	private volatile float fill = 0.0f;
+
+	// frames written into the line since it was opened and the position
+	// markers as pairs of line frame and session frame, writer thread only
+	private volatile long lineFrames = 0;
+	private final AtomicLongArray markers = new AtomicLongArray(2 * MARKERS);
+	private final AtomicLong markerCount = new AtomicLong();
+
+	// points in the ring where the session does not continue seamlessly, as
+	// triples of ring offset, session frame and jump number, written by the
+	// render thread and taken by the writer thread
+	private final AtomicLongArray splices = new AtomicLongArray(3 * SPLICES);
+	private final AtomicLong splicesWritten = new AtomicLong();
+	private final AtomicLong splicesRead = new AtomicLong();
+
+	// the latest jump not yet taken by the render thread, the number of the
+	// last requested jump and of the last one which has a marker
+	private final AtomicReference<Jump> pendingJump = new AtomicReference<Jump>();
+	private volatile long jumpsRequested = 0;
+	private volatile float requestedTime = 0.0f;
+	private volatile long jumpsMarked = 0;
 
 	public PlaybackManager(Settings settings) {
 		super();
 		this.settings = settings;
+		this.seeker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, PlaybackManager.class.getName() + "-seek");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(RenderMetrics.OBJECT_NAME));
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
 	}
 
 	public synchronized boolean initialize() {
 		try {
 			boolean playing = isPlaying();
-			if (playing) stop();
+			stop();
 
 			if (dataLine != null) {
 				dataLine.drain();
@@ -31,8 +116,25 @@ public class PlaybackManager implements Runnable {
 				dataLine.close();
 			}
 
+			// the format may have changed, continue at the same time
+			if (stream != null && !stream.getFormat().matches(settings.playbackFormat)) {
+				final float time = stream.currentTime();
+				stream = session.getStream(settings.playbackFormat, null);
+				stream.seek(time);
+				spare = null;
+			}
+			final AudioFormat format = settings.playbackFormat;
+			final float bufferTime = Math.max(BUFFER_SECONDS, 2.0f * settings.playbackBufferTime / 1000.0f);
+			ring = new RingBuffer(toBytes(format, bufferTime));
+			underruns = 0;
+			latency = 0.0f;
+			fill = 0.0f;
+			metrics.clear();
+			lineFrames = 0;
+			markerCount.set(0);
+
 			dataLine = AudioSystem.getSourceDataLine(settings.playbackFormat, settings.playbackDevice);
-			dataLine.open(settings.playbackFormat);
+			dataLine.open(settings.playbackFormat, toBytes(format, settings.playbackBufferTime / 1000.0f));
 			dataLine.start();
 
 			if (playing) play();
@@ -49,8 +151,132 @@ public class PlaybackManager implements Runnable {
 		}
 	}
 
+	/**
+	* Play the given session from its start.
+	*/
+
+	public synchronized void setSession(Session session) {
+		stop();
+		this.session = session;
+		this.stream = null;
+		this.spare = null;
+	}
+
+	public RenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	* Number of times the line ran empty since it was opened.
+	*/
+
+	public int getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	* Time in seconds until a block written now is played, as last measured.
+	*/
+
+	public float getLatency() {
+		return latency;
+	}
+
+	/**
+	* Fill level of the line buffer between 0 and 1, as last measured.
+	*/
+
+	public float getBufferFill() {
+		return fill;
+	}
+
+	/**
+	* Size of the line buffer in seconds, which may differ from the requested size.
+	*/
+
+	public synchronized float getBufferTime() {
+		if (dataLine == null) return 0.0f;
+		final AudioFormat format = dataLine.getFormat();
+		return dataLine.getBufferSize() / format.getFrameSize() / format.getSampleRate();
+	}
+
+	/**
+	* Session time in seconds of the frame the line is playing right now,
+	* or -1 if nothing has been played since the line was opened.
+	* Takes no locks and allocates nothing, so it may be polled at any rate.
+	*/
+
+	public float getPosition() {
+		final SourceDataLine line = dataLine;
+		if (line == null) return -1.0f;
+		final long played = Math.min(line.getLongFramePosition(), lineFrames);
+		final long count = markerCount.get();
+
+		// newest marker at or before the played frame, entries which the
+		// writer may have overwritten meanwhile are not trusted
+		for (long i = count - 1; i >= 0 && i > count - MARKERS; i--) {
+			final int k = 2 * (int)(i % MARKERS);
+			final long lineFrame = markers.get(k);
+			final long sessionFrame = markers.get(k + 1);
+			if (markerCount.get() - i >= MARKERS) break;
+			if (lineFrame <= played) {
+				return (float)((sessionFrame + played - lineFrame) / (double)line.getFormat().getSampleRate());
+			}
+		}
+		return -1.0f;
+	}
+
+	/**
+	* Session time in seconds the transport is heading for, which is the time
+	* of the last jump until it can be heard and the audible position after.
+	* Navigation relative to this adds up when jumps follow each other quickly.
+	*/
+
+	public float getTargetPosition() {
+		final long requested = jumpsRequested;
+		final float time = requestedTime;
+		if (requested > jumpsMarked) return time;
+
+		final SourceDataLine line = dataLine;
+		if (line == null) return -1.0f;
+		final long played = Math.min(line.getLongFramePosition(), lineFrames);
+		final long count = markerCount.get();
+		if (count > 0) {
+			final int k = 2 * (int)((count - 1) % MARKERS);
+			final long lineFrame = markers.get(k);
+			final long sessionFrame = markers.get(k + 1);
+			if (markerCount.get() == count && lineFrame > played) {
+				return (float)(sessionFrame / (double)line.getFormat().getSampleRate());
+			}
+		}
+		return getPosition();
+	}
+
+	/**
+	* Continue playback at the given session time in seconds.
+	* While playing, the jump is left to the render thread and this returns
+	* at once; a newer jump replaces one which has not been started yet.
+	*/
+
+	public synchronized void jump(float time) {
+		if (session == null) return;
+		final Jump jump = new Jump(Math.max(0.0f, time), jumpsRequested + 1);
+		requestedTime = jump.time;
+		jumpsRequested = jump.number;
+		if (isPlaying() && rendering) {
+			pendingJump.set(jump);
+			return;
+		}
+
+		// a session which played to its end continues after the jump
+		final boolean playing = isPlaying();
+		stop();
+		seekTo(jump);
+		if (playing) play();
+	}
+
 	public synchronized boolean isPlaying() {
-		return running;
+		return (running && writerThread != null && writerThread.isAlive());
 	}
 
 	public synchronized void play() {
@@ -63,61 +289,339 @@ public class PlaybackManager implements Runnable {
 			);
 			return;
 		}
+		if (session == null || isPlaying()) return;
 
-		if (!running) {
-			running = true;
-			thread = new Thread(this, getClass().getName());
-			thread.setDaemon(true);
-			thread.start();
-		}
+		// collect the threads of a session which played to its end
+		stop();
+		if (stream == null) stream = session.getStream(settings.playbackFormat, null);
+		if (stream.isFinished()) stream.rewind();
+
+		ring.clear();
+		splicesWritten.set(0);
+		splicesRead.set(0);
+		metrics.start(settings.playbackFormat.getSampleRate(), getBufferTime());
+		running = true;
+		rendering = true;
+		writing = true;
+		renderThread = new Thread(new Renderer(session, stream, spare, ring), getClass().getName() + "-render");
+		writerThread = new Thread(new Writer(dataLine, ring, settings.playbackBlockTime / 1000.0f), getClass().getName() + "-writer");
+		renderThread.setDaemon(true);
+		writerThread.setDaemon(true);
+		writerThread.setPriority(Thread.MAX_PRIORITY);
+		renderThread.start();
+		writerThread.start();
 	}
 
+	/**
+	* Fade out and wait until everything rendered so far has been played.
+	*/
+
 	public synchronized void stop() {
-		if (running) {
-			try {
-				running = false;
-				thread.join();
-			} catch (InterruptedException e) {
-				// ignore
-			} finally {
-				thread = null;
+		running = false;
+		boolean interrupted = false;
+		for (Thread thread : new Thread[] { renderThread, writerThread }) {
+			while (thread != null && thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
 			}
 		}
+		renderThread = null;
+		writerThread = null;
+		if (interrupted) Thread.currentThread().interrupt();
+
+		// a jump which came too late for the render thread
+		final Jump jump = pendingJump.getAndSet(null);
+		if (jump != null) seekTo(jump);
 	}
 
-	public void run() {
-		final byte[] buffer = new byte[8192];
-		final int samples = buffer.length / settings.playbackFormat.getFrameSize();
-		final int channels = settings.playbackFormat.getChannels();
-		final boolean sign = (settings.playbackFormat.getEncoding() == AudioFormat.Encoding.PCM_SIGNED);
-		final boolean bit16 = (settings.playbackFormat.getSampleSizeInBits() == 16);
-		final boolean bigend = (settings.playbackFormat.isBigEndian());
-		System.out.println(bigend);
-		final float step = (float)(100.0 * 2.0 * Math.PI / settings.playbackFormat.getSampleRate());
-		float volume = 0.0f;
-		float pos = 0.0f;
-
-		while (running || volume > Float.MIN_VALUE) {
-			for (int i = 0, ofs = 0; i < samples; i++) {
-				double value = Math.sin(pos);
-				int val = Math.max(-32768, Math.min(32767, (int)(volume * 32768.0f * value)));
-				if (!sign) val += 32768;
-				for (int j = 0; j < channels; j++) {
-					if (bit16 && !bigend) buffer[ofs++] = (byte)val;
-					buffer[ofs++] = (byte)(val >> 8);
-					if (bit16 && bigend) buffer[ofs++] = (byte)val;
+	/**
+	* Seek the stream while nothing is playing and mark the new position.
+	*/
+
+	private void seekTo(Jump jump) {
+		if (stream == null) stream = session.getStream(settings.playbackFormat, null);
+		stream.seek(jump.time);
+		addMarker(lineFrames, stream.getFramePosition());
+		jumpsMarked = jump.number;
+	}
+
+	/**
+	* Record that the given line frame plays the given session frame.
+	*/
+
+	private void addMarker(long lineFrame, long sessionFrame) {
+		final long n = markerCount.get();
+		final int k = 2 * (int)(n % MARKERS);
+		markers.set(k, lineFrame);
+		markers.set(k + 1, sessionFrame);
+		markerCount.set(n + 1);
+	}
+
+	/**
+	* Tell the writer that the session continues at the given session frame
+	* from the given ring offset on, called by the render thread only.
+	*/
+
+	private void addSplice(long offset, long sessionFrame, long jump) {
+		final long n = splicesWritten.get();
+		final int k = 3 * (int)(n % SPLICES);
+		splices.set(k, offset);
+		splices.set(k + 1, sessionFrame);
+		splices.set(k + 2, jump);
+		splicesWritten.set(n + 1);
+	}
+
+	private static SessionStream await(Future<SessionStream> future) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int toBytes(AudioFormat format, float seconds) {
+		return Math.max(1, Math.round(seconds * format.getSampleRate())) * format.getFrameSize();
+	}
+
+	private static void pause(AudioFormat format, int frames) {
+		LockSupport.parkNanos((long)(frames * 1.0e9 / format.getSampleRate() / 2));
+	}
+
+	private static final class Jump {
+		public final float time;
+		public final long number;
+
+		public Jump(float time, long number) {
+			this.time = time;
+			this.number = number;
+		}
+	}
+
+	/**
+	* Brings a stream to a session time away from the render thread.
+	* Without a stream to reuse, a new one is opened.
+	*/
+
+	private static final class Seek implements Callable<SessionStream> {
+		private final Session session;
+		private final AudioFormat format;
+		private final SessionStream stream;
+		private final float time;
+
+		public Seek(Session session, AudioFormat format, SessionStream stream, float time) {
+			this.session = session;
+			this.format = format;
+			this.stream = stream;
+			this.time = time;
+		}
+
+		public SessionStream call() {
+			final SessionStream target = (stream != null ? stream : session.getStream(format, null));
+			target.seek(time);
+			return target;
+		}
+	}
+
+	/**
+	* Producer side, renders the session into the ring buffer.
+	* Of the two streams, one is playing and the other one is the target
+	* of the next jump; they swap roles when the crossfade is done.
+	*/
+
+	private final class Renderer implements Runnable {
+		private final Session session;
+		private final RingBuffer ring;
+		private SessionStream stream;
+		private SessionStream spare;
+
+		public Renderer(Session session, SessionStream stream, SessionStream spare, RingBuffer ring) {
+			this.session = session;
+			this.stream = stream;
+			this.spare = spare;
+			this.ring = ring;
+		}
+
+		public void run() {
+			Jump jump = null;
+			Future<SessionStream> seek = null;
+			SessionStream next = null;
+			try {
+				final AudioFormat format = stream.getFormat();
+				final int frameSize = format.getFrameSize();
+				final PCMPacker packer = new PCMPacker(format);
+				final float[][] block = new float[format.getChannels()][RENDER_FRAMES];
+				final float[][] other = new float[format.getChannels()][RENDER_FRAMES];
+				final byte[] buffer = new byte[RENDER_FRAMES * frameSize];
+				final float step = 1.0f / Math.max(1, Math.round(FADE_SECONDS * format.getSampleRate()));
+				final int crossfade = Math.max(1, Math.round(CROSSFADE_SECONDS * format.getSampleRate()));
+				float volume = 0.0f;
+				long produced = 0;
+				int faded = 0;
+				boolean primed = false;
+
+				addSplice(0, stream.getFramePosition(), 0);
+				while (true) {
+					final boolean on = running;
+					if (!on && volume <= 0.0f) break;
+					if (primed) metrics.recordFill((float)ring.available() / ring.capacity());
+					while (ring.free() < buffer.length && writing) {
+						primed = true;
+						pause(format, RENDER_FRAMES);
+					}
+					if (!writing) break;
+					final long start = System.nanoTime();
+
+					// start seeking for the latest jump once the last one is done,
+					// and as long as the writer can be told about another splice
+					if (on && seek == null && next == null && splicesWritten.get() - splicesRead.get() < SPLICES) {
+						jump = pendingJump.getAndSet(null);
+						if (jump != null) {
+							seek = seeker.submit(new Seek(session, format, spare, jump.time));
+							spare = null;
+						}
+					}
+					if (seek != null && seek.isDone()) {
+						next = await(seek);
+						seek = null;
+						faded = 0;
+						addSplice(produced, next.getFramePosition(), jump.number);
+					}
+
+					int frames;
+					if (next != null) {
+						// equal power crossfade, the sum of the squared gains is one
+						frames = Math.min(RENDER_FRAMES, crossfade - faded);
+						final int from = Math.max(0, stream.read(block, 0, frames));
+						final int to = Math.max(0, next.read(other, 0, frames));
+						for (int i = 0; i < frames; i++) {
+							final double x = (faded + i + 0.5) / crossfade * (Math.PI / 2.0);
+							final float g1 = (i < from ? (float)Math.cos(x) : 0.0f);
+							final float g2 = (i < to ? (float)Math.sin(x) : 0.0f);
+							for (int channel = 0; channel < block.length; channel++) {
+								block[channel][i] = g1 * (i < from ? block[channel][i] : 0.0f) + g2 * (i < to ? other[channel][i] : 0.0f);
+							}
+						}
+						faded += frames;
+						if (faded >= crossfade) {
+							spare = stream;
+							stream = next;
+							next = null;
+						}
+					} else {
+						frames = stream.read(block, 0, RENDER_FRAMES);
+						if (frames <= 0 && seek == null) break;
+						if (frames <= 0) {
+							pause(format, RENDER_FRAMES);
+							continue;
+						}
+					}
+
+					for (int i = 0; i < frames; i++) {
+						volume = (on ? Math.min(1.0f, volume + step) : Math.max(0.0f, volume - step));
+						if (volume >= 1.0f) continue;
+						for (int channel = 0; channel < block.length; channel++) {
+							block[channel][i] *= volume;
+						}
+					}
+					packer.pack(block, 0, frames, buffer, 0);
+					ring.write(buffer, 0, frames * frameSize);
+					produced += frames * frameSize;
+					metrics.record(System.nanoTime() - start, frames);
 				}
-				pos += step;
-				if (running) {
-					volume = Math.min(1.0f, volume + step);
-				} else {
-					volume = Math.max(0.0f, volume - step);
+			} finally {
+				// the position of an interrupted crossfade is already marked,
+				// a jump still seeking is left for stop() to finish
+				try {
+					if (next != null) {
+						spare = stream;
+						stream = next;
+					}
+					if (seek != null) {
+						pendingJump.compareAndSet(null, jump);
+						spare = await(seek);
+					}
+				} finally {
+					PlaybackManager.this.stream = stream;
+					PlaybackManager.this.spare = spare;
+					rendering = false;
 				}
 			}
-			dataLine.write(buffer, 0, buffer.length);
 		}
 	}
-}
 
+	/**
+	* Consumer side, feeds the line from the ring buffer until the renderer is done.
+	*/
 
+	private final class Writer implements Runnable {
+		private final SourceDataLine line;
+		private final RingBuffer ring;
+		private final float blockTime;
 
+		public Writer(SourceDataLine line, RingBuffer ring, float blockTime) {
+			this.line = line;
+			this.ring = ring;
+			this.blockTime = blockTime;
+		}
+
+		public void run() {
+			try {
+				final AudioFormat format = line.getFormat();
+				final int frameSize = format.getFrameSize();
+				final int bufferSize = line.getBufferSize();
+				final byte[] buffer = new byte[Math.min(toBytes(format, blockTime), Math.max(frameSize, bufferSize / 2 / frameSize * frameSize))];
+				boolean started = false;
+				long consumed = 0;
+
+				while (true) {
+					final boolean done = !rendering;
+					final int count = ring.read(buffer, 0, buffer.length);
+					if (count > 0) {
+						final int queued = Math.max(0, bufferSize - line.available());
+						if (started && queued == 0) underruns++;
+						fill = (float)queued / bufferSize;
+						latency = (float)(queued / frameSize) / format.getSampleRate();
+						markSplices(consumed, consumed + count, frameSize);
+						line.write(buffer, 0, count);
+						lineFrames += count / frameSize;
+						consumed += count;
+						started = true;
+					} else if (done) {
+						break;
+					} else {
+						pause(format, RENDER_FRAMES);
+					}
+				}
+			} finally {
+				writing = false;
+			}
+		}
+
+		/**
+		* Turn the splices within the ring bytes about to be written into markers.
+		*/
+
+		private void markSplices(long from, long to, int frameSize) {
+			for (long n = splicesRead.get(); n < splicesWritten.get(); n++) {
+				final int k = 3 * (int)(n % SPLICES);
+				final long offset = splices.get(k);
+				if (offset >= to) break;
+				addMarker(lineFrames + (offset - from) / frameSize, splices.get(k + 1));
+				if (splices.get(k + 2) > 0) jumpsMarked = splices.get(k + 2);
+				splicesRead.set(n + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package openstim;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+* Health of the playback render loop, measured per block.
+* The render thread is the only writer, so recording a block is a handful of
+* plain stores without locks or allocation; everyone else reads lock-free and
+* may see the values of neighbouring blocks mixed, which is fine for a monitor.
+* Block times are counted in buckets of doubling width, bucket 0 holding the
+* blocks below 16 microseconds and the last one everything from 262 ms up.
+* A block misses its deadline if it takes longer than the line buffer lasts,
+* so that no amount of buffering would have hidden it.
+*/
+
+public class RenderMetrics implements RenderMetricsMBean {
+	public static final String OBJECT_NAME = "openstim:type=RenderMetrics";
+	public static final int BUCKETS = 16;
+	private static final int FIRST_BUCKET_SHIFT = 4;
+	private static final float RECENT_WEIGHT = 0.05f;
+
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+	private volatile long blocks = 0;
+	private volatile long renderNanos = 0;
+	private volatile long audioNanos = 0;
+	private volatile long maxBlockNanos = 0;
+	private volatile long deadlineMisses = 0;
+	private volatile float recentRatio = 0.0f;
+	private volatile float ringFill = 0.0f;
+	private volatile float minRingFill = 1.0f;
+	private volatile boolean resetRequested = false;
+
+	// set before the render thread starts
+	private volatile float sampleRate = 44100.0f;
+	private volatile long deadlineNanos = Long.MAX_VALUE;
+
+	/**
+	* Upper limit of the given bucket in microseconds, the last bucket has none.
+	*/
+
+	public static long getBucketLimit(int bucket) {
+		return (bucket < BUCKETS - 1 ? 1L << (bucket + FIRST_BUCKET_SHIFT) : Long.MAX_VALUE);
+	}
+
+	/**
+	* Prepare for a render thread at the given rate whose output is buffered
+	* for the given number of seconds, called while no block is recorded.
+	*/
+
+	public void start(float sampleRate, float deadline) {
+		this.sampleRate = sampleRate;
+		this.deadlineNanos = (deadline > 0.0f ? (long)(deadline * 1.0e9) : Long.MAX_VALUE);
+	}
+
+	/**
+	* Record a block of the given number of frames which took the given time
+	* to render, called by the render thread only.
+	*/
+
+	public void record(long nanos, int frames) {
+		if (resetRequested) clear();
+		final long audio = (long)(frames * 1.0e9 / sampleRate);
+		final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros((nanos / 1000) >> FIRST_BUCKET_SHIFT));
+		histogram.lazySet(bucket, histogram.get(bucket) + 1);
+		blocks++;
+		renderNanos += nanos;
+		audioNanos += audio;
+		if (nanos > maxBlockNanos) maxBlockNanos = nanos;
+		if (nanos > deadlineNanos) deadlineMisses++;
+		if (audio > 0) recentRatio += RECENT_WEIGHT * ((float)nanos / audio - recentRatio);
+	}
+
+	/**
+	* Record the fill level of the ring buffer before a block, called by the
+	* render thread only and not before the ring has been filled up once.
+	*/
+
+	public void recordFill(float fill) {
+		if (resetRequested) clear();
+		ringFill = fill;
+		if (fill < minRingFill) minRingFill = fill;
+	}
+
+	/**
+	* Start counting from scratch, called while no block is recorded.
+	*/
+
+	public void clear() {
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram.set(i, 0);
+		}
+		blocks = 0;
+		renderNanos = 0;
+		audioNanos = 0;
+		maxBlockNanos = 0;
+		deadlineMisses = 0;
+		recentRatio = 0.0f;
+		ringFill = 0.0f;
+		minRingFill = 1.0f;
+		resetRequested = false;
+	}
+
+	/**
+	* Start counting from scratch with the next block.
+	*/
+
+	public void reset() {
+		resetRequested = true;
+	}
+
+	public long getBlocks() {
+		return blocks;
+	}
+
+	/**
+	* Time spent rendering relative to the duration of the audio rendered.
+	*/
+
+	public float getRealtimeRatio() {
+		final long audio = audioNanos;
+		return (audio > 0 ? (float)renderNanos / audio : 0.0f);
+	}
+
+	/**
+	* Realtime ratio of the last few dozen blocks.
+	*/
+
+	public float getRecentRealtimeRatio() {
+		return recentRatio;
+	}
+
+	public float getMeanBlockTime() {
+		final long n = blocks;
+		return (n > 0 ? renderNanos / 1.0e6f / n : 0.0f);
+	}
+
+	public float getMaxBlockTime() {
+		return maxBlockNanos / 1.0e6f;
+	}
+
+	public long[] getBlockTimeHistogram() {
+		final long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = histogram.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	* Upper limit in milliseconds of the block times below the given fraction
+	* of all blocks, as far as the buckets tell, or the maximum if beyond.
+	*/
+
+	public float getBlockTimePercentile(float fraction) {
+		final long[] counts = getBlockTimeHistogram();
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts[i];
+		}
+		long sum = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			sum += counts[i];
+			if (sum >= fraction * total) return Math.min(getBucketLimit(i) / 1000.0f, getMaxBlockTime());
+		}
+		return getMaxBlockTime();
+	}
+
+	public float getDeadline() {
+		final long deadline = deadlineNanos;
+		return (deadline < Long.MAX_VALUE ? deadline / 1.0e6f : 0.0f);
+	}
+
+	public long getDeadlineMisses() {
+		return deadlineMisses;
+	}
+
+	public float getRingFill() {
+		return ringFill;
+	}
+
+	/**
+	* Lowest fill level of the ring buffer seen before a block, a value near
+	* zero means that the render thread barely kept up.
+	*/
+
+	public float getMinRingFill() {
+		return minRingFill;
+	}
+}
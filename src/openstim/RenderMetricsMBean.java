@@ -0,0 +1,20 @@
+package openstim;
+
+/**
+* Management interface of the playback render metrics.
+* Times are in milliseconds, ratios and fill levels between 0 and 1.
+*/
+
+public interface RenderMetricsMBean {
+	public long getBlocks();
+	public float getRealtimeRatio();
+	public float getRecentRealtimeRatio();
+	public float getMeanBlockTime();
+	public float getMaxBlockTime();
+	public long[] getBlockTimeHistogram();
+	public float getDeadline();
+	public long getDeadlineMisses();
+	public float getRingFill();
+	public float getMinRingFill();
+	public void reset();
+}
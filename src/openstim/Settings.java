@@ -33,6 +33,10 @@ import org.w3c.dom.NodeList;
 
 public class Settings {
 	public final static int MAX_CHANNELS = 8;
+	public final static int DEFAULT_BUFFER_TIME = 200;
+	public final static int DEFAULT_BLOCK_TIME = 20;
+	public final static int MIN_BUFFER_TIME = 10;
+	public final static int MAX_BUFFER_TIME = 2000;
 	public final File configDir;
 	public final File settingsFile;
 	public final Map<Mixer.Info, Set<AudioFormat>> audioHardware;
@@ -40,6 +44,10 @@ public class Settings {
 	public Mixer.Info playbackDevice;
 	public AudioFormat playbackFormat;
 
+	// size of the line buffer and of the blocks written into it, in milliseconds
+	public int playbackBufferTime = DEFAULT_BUFFER_TIME;
+	public int playbackBlockTime = DEFAULT_BLOCK_TIME;
+
 	public Settings() {
 		configDir = new File(System.getProperty("user.home"), ".openstim");
 		settingsFile = new File(configDir, "settings.xml");
@@ -50,6 +58,8 @@ public class Settings {
 		if (!settingsFile.isFile()) {
 			playbackDevice = null;
 			playbackFormat = new AudioFormat(44100, 16, 2, true, false);
+			playbackBufferTime = DEFAULT_BUFFER_TIME;
+			playbackBlockTime = DEFAULT_BLOCK_TIME;
 			return false;
 		}
 
@@ -103,6 +113,16 @@ public class Settings {
 					if (playbackFormat.getSampleRate() != sampleRate) approximate = true;
 					if (playbackFormat.getSampleSizeInBits() != sampleSize) approximate = true;
 					if (playbackFormat.getChannels() != channels) approximate = true;
+
+					attr = attributes.getNamedItem("bufferTime");
+					playbackBufferTime = (attr == null ? DEFAULT_BUFFER_TIME : Integer.parseInt(attr.getTextContent()));
+					if (playbackBufferTime < MIN_BUFFER_TIME) playbackBufferTime = MIN_BUFFER_TIME; else
+					if (playbackBufferTime > MAX_BUFFER_TIME) playbackBufferTime = MAX_BUFFER_TIME;
+
+					attr = attributes.getNamedItem("blockTime");
+					playbackBlockTime = (attr == null ? DEFAULT_BLOCK_TIME : Integer.parseInt(attr.getTextContent()));
+					if (playbackBlockTime < 1) playbackBlockTime = 1; else
+					if (playbackBlockTime > playbackBufferTime / 2) playbackBlockTime = Math.max(1, playbackBufferTime / 2);
 				} else {
 					throw new Exception("Unexpected node: " + node.getNodeName());
 				}
@@ -134,6 +154,8 @@ public class Settings {
 			);
 			playbackDevice = null;
 			playbackFormat = new AudioFormat(44100, 16, 2, true, false);
+			playbackBufferTime = DEFAULT_BUFFER_TIME;
+			playbackBlockTime = DEFAULT_BLOCK_TIME;
 			return false;
 		}
 	}
@@ -168,6 +190,8 @@ public class Settings {
 			playbackXML.setAttribute("sampleSize", Integer.toString(playbackFormat.getSampleSizeInBits()));
 			playbackXML.setAttribute("sampleRate", Integer.toString((int)playbackFormat.getSampleRate()));
 			playbackXML.setAttribute("channels", Integer.toString(playbackFormat.getChannels()));
+			playbackXML.setAttribute("bufferTime", Integer.toString(playbackBufferTime));
+			playbackXML.setAttribute("blockTime", Integer.toString(playbackBlockTime));
 
 			root.appendChild(playbackXML);
 			doc.appendChild(root);
@@ -0,0 +1,88 @@
+package openstim.audio;
+
+import java.util.Arrays;
+
+/**
+* Big endian bit writer into a growing byte array, as needed for FLAC frames.
+*/
+
+final class BitWriter {
+	private byte[] data;
+	private int length = 0;
+	private long acc = 0;
+	private int bits = 0;
+
+	public BitWriter(int capacity) {
+		data = new byte[Math.max(16, capacity)];
+	}
+
+	public void reset() {
+		length = 0;
+		acc = 0;
+		bits = 0;
+	}
+
+	/**
+	* Number of complete bytes written so far.
+	*/
+
+	public int length() {
+		return length;
+	}
+
+	public byte[] data() {
+		return data;
+	}
+
+	public boolean isAligned() {
+		return (bits == 0);
+	}
+
+	/**
+	* Write the lower n bits of value, n may be up to 32.
+	*/
+
+	public void write(int value, int n) {
+		if (n == 0) return;
+		acc = (acc << n) | (value & (0xFFFFFFFFL >>> (32 - n)));
+		bits += n;
+		while (bits >= 8) {
+			bits -= 8;
+			put((byte)(acc >>> bits));
+		}
+	}
+
+	/**
+	* Write the given number of zero bits followed by a one.
+	*/
+
+	public void writeUnary(int zeros) {
+		while (zeros >= 32) {
+			write(0, 32);
+			zeros -= 32;
+		}
+		write(1, zeros + 1);
+	}
+
+	/**
+	* Write an unsigned value as Rice code with parameter k.
+	*/
+
+	public void writeRice(int value, int k) {
+		writeUnary(value >>> k);
+		write(value, k);
+	}
+
+	/**
+	* Fill the current byte with zero bits.
+	*/
+
+	public void align() {
+		if (bits > 0) write(0, 8 - bits);
+	}
+
+	private void put(byte b) {
+		if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+		data[length++] = b;
+	}
+}
@@ -0,0 +1,715 @@
+package openstim.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.swing.ProgressMonitor;
+import openstim.model.RenderPool;
+
+/**
+* Encoder for FLAC files, written from the format specification.
+* Every frame of BLOCK_SIZE samples is encoded independently, so the frames
+* are spread over the render pool while the stream is read. Channels are
+* predicted with fixed polynomials or quantized LPC coefficients, whatever
+* is smaller, and the residual is Rice coded in adaptive partitions.
+* Stereo input additionally tries the left/side, right/side and mid/side
+* decorrelations.
+*/
+
+public final class FlacEncoder {
+	public static final int BLOCK_SIZE = 4096;
+
+	private static final int FRAMES_PER_THREAD = 8;
+	private static final int MAX_LPC_ORDER = 8;
+	private static final int MAX_FIXED_ORDER = 4;
+	private static final int MAX_PARTITION_ORDER = 8;
+	private static final int MAX_RICE_PARAM = 14;
+	private static final int LPC_PRECISION = 14;
+
+	private static final int[] CRC8 = new int[256];
+	private static final int[] CRC16 = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int c8 = i;
+			int c16 = i << 8;
+			for (int j = 0; j < 8; j++) {
+				c8 = ((c8 & 0x80) != 0 ? (c8 << 1) ^ 0x07 : c8 << 1) & 0xFF;
+				c16 = ((c16 & 0x8000) != 0 ? (c16 << 1) ^ 0x8005 : c16 << 1) & 0xFFFF;
+			}
+			CRC8[i] = c8;
+			CRC16[i] = c16;
+		}
+	}
+
+	private final AudioFormat format;
+	private final int channels;
+	private final int bits;
+	private final int sampleRate;
+
+	public FlacEncoder(AudioFormat format) {
+		if (!isSupported(format)) {
+			throw new IllegalArgumentException("Unsupported FLAC input format: " + format);
+		}
+		this.format = format;
+		this.channels = format.getChannels();
+		this.bits = format.getSampleSizeInBits();
+		this.sampleRate = (int)format.getSampleRate();
+	}
+
+	/**
+	* The encoder reads signed little endian PCM with 8, 16 or 24 bits and up to 8 channels.
+	*/
+
+	public static boolean isSupported(AudioFormat format) {
+		if (!PCMPacker.isSupported(format)) return false;
+		if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) return false;
+		if (format.getSampleSizeInBits() > 8 && format.isBigEndian()) return false;
+		final float rate = format.getSampleRate();
+		return (format.getChannels() <= 8 && rate >= 1.0f && rate <= 655350.0f && rate == (int)rate);
+	}
+
+	/**
+	* Encode the whole stream into the given file.
+	* The file is deleted again if encoding fails or is canceled.
+	*/
+
+	public void encode(AudioInputStream stream, File file, ProgressMonitor monitor) throws IOException {
+		if (!stream.getFormat().matches(format)) {
+			throw new IllegalArgumentException("Stream does not match the encoder format: " + stream.getFormat());
+		}
+		final MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("MD5 is not available: " + e.getMessage());
+		}
+
+		final ExecutorService executor = RenderPool.getExecutor();
+		final int batch = RenderPool.getParallelism() * FRAMES_PER_THREAD;
+		final int frameSize = format.getFrameSize();
+		final long totalFrames = stream.getFrameLength();
+		final List<Future<byte[]>> pending = new ArrayList<Future<byte[]>>();
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		boolean success = false;
+
+		try {
+			final FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			write(channel, ByteBuffer.wrap(streamHeader(0, 0, 0, 0, 0, new byte[16])));
+
+			long samples = 0;
+			long frameNumber = 0;
+			int minBlock = BLOCK_SIZE, maxBlock = 0;
+			int minFrame = Integer.MAX_VALUE, maxFrame = 0;
+			boolean finished = false;
+			final byte[] buffer = new byte[BLOCK_SIZE * frameSize];
+
+			while (!finished || !pending.isEmpty()) {
+				// read and hand out the next batch of frames
+				final int drain = pending.size();
+				for (int i = 0; i < batch && !finished; i++) {
+					final int count = readFully(stream, buffer) / frameSize;
+					if (count < BLOCK_SIZE) finished = true;
+					if (count == 0) break;
+					md5.update(buffer, 0, count * frameSize);
+					pending.add(executor.submit(new Frame(decode(buffer, count), count, frameNumber++)));
+					samples += count;
+					maxBlock = Math.max(maxBlock, count);
+					if (!finished) minBlock = Math.min(minBlock, count);
+				}
+
+				// write the frames of the previous batch while the new one is encoded
+				for (int i = 0; i < (finished ? pending.size() : drain); i++) {
+					final byte[] frame = get(pending.get(i));
+					minFrame = Math.min(minFrame, frame.length);
+					maxFrame = Math.max(maxFrame, frame.length);
+					write(channel, ByteBuffer.wrap(frame));
+				}
+				pending.subList(0, finished ? pending.size() : drain).clear();
+
+				if (monitor != null) {
+					update(monitor, samples, totalFrames);
+					if (monitor.isCanceled()) throw new IOException("Canceled by user.");
+				}
+			}
+
+			if (samples < BLOCK_SIZE) minBlock = maxBlock = (int)Math.max(16, samples);
+			if (minFrame > maxFrame) minFrame = maxFrame = 0;
+			final ByteBuffer header = ByteBuffer.wrap(streamHeader(minBlock, maxBlock, minFrame, maxFrame, samples, md5.digest()));
+			long position = 0;
+			while (header.hasRemaining()) position += channel.write(header, position);
+			success = true;
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(false);
+			}
+			raf.close();
+			if (!success) file.delete();
+		}
+	}
+
+	private void update(ProgressMonitor monitor, long samples, long totalFrames) {
+		final int done = (int)(samples / sampleRate);
+		if (totalFrames <= 0) {
+			monitor.setNote(String.format("Completed %d:%02d...", done / 60, done % 60));
+			return;
+		}
+		final int total = (int)(totalFrames / sampleRate);
+		monitor.setProgress((int)(100L * samples / totalFrames));
+		monitor.setNote(String.format("Completed %d:%02d of %d:%02d...", done / 60, done % 60, total / 60, total % 60));
+	}
+
+	private static byte[] get(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Encoding interrupted.");
+		} catch (ExecutionException e) {
+			throw new IOException("Encoding failed: " + e.getCause(), e.getCause());
+		}
+	}
+
+	private static int readFully(AudioInputStream stream, byte[] buffer) throws IOException {
+		int done = 0;
+		while (done < buffer.length) {
+			final int count = stream.read(buffer, done, buffer.length - done);
+			if (count <= 0) break;
+			done += count;
+		}
+		return done;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	/**
+	* Split interleaved signed little endian PCM into one array per channel.
+	*/
+
+	private int[][] decode(byte[] buffer, int count) {
+		final int[][] result = new int[channels][count];
+		final int bytes = bits / 8;
+		for (int ch = 0; ch < channels; ch++) {
+			final int[] dst = result[ch];
+			int ofs = ch * bytes;
+			final int step = channels * bytes;
+			switch (bytes) {
+				case 1:
+					for (int i = 0; i < count; i++, ofs += step) dst[i] = buffer[ofs];
+					break;
+				case 2:
+					for (int i = 0; i < count; i++, ofs += step) dst[i] = (buffer[ofs] & 0xFF) | (buffer[ofs+1] << 8);
+					break;
+				default:
+					for (int i = 0; i < count; i++, ofs += step) dst[i] = (buffer[ofs] & 0xFF) | ((buffer[ofs+1] & 0xFF) << 8) | (buffer[ofs+2] << 16);
+					break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	* The "fLaC" marker followed by the STREAMINFO block, the only metadata block.
+	*/
+
+	private byte[] streamHeader(int minBlock, int maxBlock, int minFrame, int maxFrame, long samples, byte[] md5) {
+		final BitWriter out = new BitWriter(42);
+		out.write(0x664C6143, 32);
+		out.write(1, 1);
+		out.write(0, 7);
+		out.write(34, 24);
+		out.write(minBlock, 16);
+		out.write(maxBlock, 16);
+		out.write(minFrame, 24);
+		out.write(maxFrame, 24);
+		out.write(sampleRate, 20);
+		out.write(channels - 1, 3);
+		out.write(bits - 1, 5);
+		out.write((int)(samples >>> 32), 4);
+		out.write((int)samples, 32);
+		for (int i = 0; i < 16; i++) out.write(md5[i], 8);
+		return Arrays.copyOf(out.data(), out.length());
+	}
+
+	/**
+	* Encoding of a single frame.
+	*/
+
+	private final class Frame implements Callable<byte[]> {
+		private final int[][] samples;
+		private final int count;
+		private final long number;
+
+		// scratch space of the subframe search
+		private final long[] residual;
+		private final int[] trial;
+		private final int[] riceParams = new int[1 << MAX_PARTITION_ORDER];
+		private final long[] sums = new long[2 << MAX_PARTITION_ORDER];
+		private int riceOrder;
+
+		public Frame(int[][] samples, int count, long number) {
+			this.samples = samples;
+			this.count = count;
+			this.number = number;
+			this.residual = new long[count];
+			this.trial = new int[count];
+		}
+
+		public byte[] call() {
+			final BitWriter out = new BitWriter(count * channels * bits / 8 + 64);
+			int assignment = channels - 1;
+			int[][] input = samples;
+			Subframe.Choice[] choices = new Subframe.Choice[channels];
+
+			if (channels == 2) {
+				// try the decorrelated variants of a stereo pair
+				final int[] left = samples[0];
+				final int[] right = samples[1];
+				final int[] mid = new int[count];
+				final int[] side = new int[count];
+				for (int i = 0; i < count; i++) {
+					mid[i] = (left[i] + right[i]) >> 1;
+					side[i] = left[i] - right[i];
+				}
+				final Subframe.Choice l = Subframe.choose(this, left, bits);
+				final Subframe.Choice r = Subframe.choose(this, right, bits);
+				final Subframe.Choice m = Subframe.choose(this, mid, bits);
+				final Subframe.Choice s = Subframe.choose(this, side, bits + 1);
+				final int min = Math.min(Math.min(l.size + r.size, l.size + s.size), Math.min(r.size + s.size, m.size + s.size));
+				if (min == l.size + r.size) {
+					assignment = 1;
+					choices = new Subframe.Choice[] { l, r };
+				} else if (min == l.size + s.size) {
+					assignment = 8;
+					input = new int[][] { left, side };
+					choices = new Subframe.Choice[] { l, s };
+				} else if (min == r.size + s.size) {
+					assignment = 9;
+					input = new int[][] { side, right };
+					choices = new Subframe.Choice[] { s, r };
+				} else {
+					assignment = 10;
+					input = new int[][] { mid, side };
+					choices = new Subframe.Choice[] { m, s };
+				}
+			} else {
+				for (int ch = 0; ch < channels; ch++) {
+					choices[ch] = Subframe.choose(this, input[ch], bits);
+				}
+			}
+
+			// the chosen subframes are written as estimated, only the residual is recomputed
+			writeHeader(out, assignment);
+			for (int ch = 0; ch < channels; ch++) {
+				final boolean isSide = (assignment == 8 && ch == 1) || (assignment == 9 && ch == 0) || (assignment == 10 && ch == 1);
+				Subframe.write(this, out, input[ch], isSide ? bits + 1 : bits, choices[ch]);
+			}
+			out.align();
+			final int crc = crc16(out.data(), out.length());
+			out.write(crc, 16);
+			return Arrays.copyOf(out.data(), out.length());
+		}
+
+		private void writeHeader(BitWriter out, int assignment) {
+			out.write(0xFFF8, 16);
+			out.write(count == BLOCK_SIZE ? 12 : 7, 4);
+			out.write(rateCode(), 4);
+			out.write(assignment, 4);
+			out.write(bits == 8 ? 1 : (bits == 16 ? 4 : 6), 3);
+			out.write(0, 1);
+			writeUTF8(out, number);
+			if (count != BLOCK_SIZE) out.write(count - 1, 16);
+			switch (rateCode()) {
+				case 12: out.write(sampleRate / 1000, 8); break;
+				case 13: out.write(sampleRate, 16); break;
+				case 14: out.write(sampleRate / 10, 16); break;
+			}
+			out.write(crc8(out.data(), out.length()), 8);
+		}
+	}
+
+	private int rateCode() {
+		switch (sampleRate) {
+			case 88200:  return 1;
+			case 176400: return 2;
+			case 192000: return 3;
+			case 8000:   return 4;
+			case 16000:  return 5;
+			case 22050:  return 6;
+			case 24000:  return 7;
+			case 32000:  return 8;
+			case 44100:  return 9;
+			case 48000:  return 10;
+			case 96000:  return 11;
+		}
+		if (sampleRate % 1000 == 0 && sampleRate / 1000 < 256) return 12;
+		if (sampleRate < 65536) return 13;
+		if (sampleRate % 10 == 0) return 14;
+		return 0;
+	}
+
+	/**
+	* Frame numbers use the same variable length coding as UTF-8.
+	*/
+
+	private static void writeUTF8(BitWriter out, long value) {
+		if (value < 0x80) {
+			out.write((int)value, 8);
+			return;
+		}
+		int bytes = 2;
+		while (bytes < 7 && value >= (1L << (5 * bytes + 1))) bytes++;
+		out.write((0xFF00 >> bytes) & 0xFF | (int)(value >>> (6 * (bytes - 1))), 8);
+		for (int i = bytes - 2; i >= 0; i--) {
+			out.write(0x80 | (int)((value >>> (6 * i)) & 0x3F), 8);
+		}
+	}
+
+	private static int crc8(byte[] data, int length) {
+		int crc = 0;
+		for (int i = 0; i < length; i++) crc = CRC8[(crc ^ data[i]) & 0xFF];
+		return crc;
+	}
+
+	private static int crc16(byte[] data, int length) {
+		int crc = 0;
+		for (int i = 0; i < length; i++) crc = ((crc << 8) ^ CRC16[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+		return crc;
+	}
+
+	/**
+	* Selection and coding of the subframe of one channel.
+	*/
+
+	private static final class Subframe {
+		private static final int CONSTANT = 0;
+		private static final int VERBATIM = 1;
+		private static final int FIXED = 2;
+		private static final int LPC = 3;
+
+		private Subframe() {
+		}
+
+		/**
+		* Write the subframe found by choose for the same samples.
+		*/
+
+		public static void write(Frame frame, BitWriter out, int[] x, int bits, Choice c) {
+			final int n = frame.count;
+			out.write(0, 1);
+			switch (c.type) {
+				case CONSTANT:
+					out.write(0, 6);
+					out.write(0, 1);
+					out.write(x[0], bits);
+					return;
+				case VERBATIM:
+					out.write(1, 6);
+					out.write(0, 1);
+					for (int i = 0; i < n; i++) out.write(x[i], bits);
+					return;
+				case FIXED:
+					out.write(8 | c.order, 6);
+					out.write(0, 1);
+					for (int i = 0; i < c.order; i++) out.write(x[i], bits);
+					fixedResidual(x, n, c.order, frame.residual);
+					break;
+				default:
+					out.write(32 | (c.order - 1), 6);
+					out.write(0, 1);
+					for (int i = 0; i < c.order; i++) out.write(x[i], bits);
+					out.write(LPC_PRECISION - 1, 4);
+					out.write(c.shift, 5);
+					for (int i = 0; i < c.order; i++) out.write(c.coefs[i], LPC_PRECISION);
+					lpcResidual(x, n, c.order, c.coefs, c.shift, frame.residual);
+					break;
+			}
+
+			// residual, partitioned Rice coding with 4 bit parameters
+			final long[] r = frame.residual;
+			final int[] u = frame.trial;
+			for (int i = c.order; i < n; i++) u[i] = zigzag(r[i]);
+			riceCost(frame, u, n, c.order);
+			final int porder = frame.riceOrder;
+			out.write(0, 2);
+			out.write(porder, 4);
+			final int size = n >> porder;
+			for (int p = 0, i = c.order; p < (1 << porder); p++) {
+				final int k = frame.riceParams[p];
+				out.write(k, 4);
+				for (final int end = (p + 1) * size; i < end; i++) {
+					out.writeRice(u[i], k);
+				}
+			}
+		}
+
+		/**
+		* Type and parameters of the best subframe and its size in bits.
+		*/
+
+		private static final class Choice {
+			int type;
+			int order;
+			int size;
+			int shift;
+			int[] coefs;
+		}
+
+		private static Choice choose(Frame frame, int[] x, int bits) {
+			final int n = frame.count;
+			final Choice c = new Choice();
+
+			boolean constant = true;
+			for (int i = 1; i < n && constant; i++) constant = (x[i] == x[0]);
+			if (constant) {
+				c.type = CONSTANT;
+				c.size = 8 + bits;
+				return c;
+			}
+
+			c.type = VERBATIM;
+			c.size = 8 + n * bits;
+
+			// fixed polynomial predictors
+			for (int order = 0; order <= MAX_FIXED_ORDER && order < n; order++) {
+				fixedResidual(x, n, order, frame.residual);
+				final int size = 8 + order * bits + residualCost(frame, n, order);
+				if (size < c.size) {
+					c.type = FIXED;
+					c.order = order;
+					c.size = size;
+				}
+			}
+
+			// linear prediction, the order is chosen from the prediction error
+			if (n > MAX_LPC_ORDER * 2) {
+				final double[][] lpc = new double[MAX_LPC_ORDER + 1][];
+				final double[] error = new double[MAX_LPC_ORDER + 1];
+				if (levinson(autocorrelation(x, n), lpc, error)) {
+					int order = 0;
+					double bestBits = Double.MAX_VALUE;
+					for (int p = 1; p <= MAX_LPC_ORDER; p++) {
+						final double perSample = (error[p] > 0.0 ? Math.max(0.0, 0.5 * Math.log(error[p] / n) / Math.log(2.0)) : 0.0);
+						final double estimate = perSample * (n - p) + p * (bits + LPC_PRECISION);
+						if (estimate < bestBits) {
+							bestBits = estimate;
+							order = p;
+						}
+					}
+					final int[] coefs = new int[order];
+					final int shift = quantize(lpc[order], order, coefs);
+					if (shift >= 0) {
+						lpcResidual(x, n, order, coefs, shift, frame.residual);
+						final int size = 8 + order * bits + 9 + order * LPC_PRECISION + residualCost(frame, n, order);
+						if (size < c.size) {
+							c.type = LPC;
+							c.order = order;
+							c.size = size;
+							c.shift = shift;
+							c.coefs = coefs;
+						}
+					}
+				}
+			}
+			return c;
+		}
+
+		/**
+		* Bits needed for the residual in frame.residual, or a huge
+		* value if it does not fit into the 32 bit range of FLAC.
+		*/
+
+		private static int residualCost(Frame frame, int n, int order) {
+			final long[] r = frame.residual;
+			final int[] u = frame.trial;
+			for (int i = order; i < n; i++) {
+				if (r[i] > 0x3FFFFFFFL || r[i] < -0x3FFFFFFFL) return Integer.MAX_VALUE / 2;
+				u[i] = zigzag(r[i]);
+			}
+			return riceCost(frame, u, n, order);
+		}
+
+		private static int zigzag(long r) {
+			return (int)((r << 1) ^ (r >> 63));
+		}
+
+		/**
+		* Find the partition order and Rice parameters with the smallest
+		* estimated size, they are left in the frame for writing.
+		*/
+
+		private static int riceCost(Frame frame, int[] u, int n, int order) {
+			int maxOrder = 0;
+			while (maxOrder < MAX_PARTITION_ORDER && (n % (2 << maxOrder)) == 0 && (n >> (maxOrder + 1)) > order) maxOrder++;
+
+			// sums of the finest partitions, then merged pairwise
+			final long[] sums = frame.sums;
+			final int finest = 1 << maxOrder;
+			final int size = n >> maxOrder;
+			for (int p = 0, i = order; p < finest; p++) {
+				long sum = 0;
+				for (final int end = (p + 1) * size; i < end; i++) sum += u[i] & 0xFFFFFFFFL;
+				sums[p] = sum;
+			}
+
+			long bestCost = Long.MAX_VALUE;
+			int bestOrder = 0;
+			final int[] params = new int[finest];
+			for (int porder = maxOrder; porder >= 0; porder--) {
+				final int parts = 1 << porder;
+				if (porder < maxOrder) {
+					for (int p = 0; p < parts; p++) sums[p] = sums[2*p] + sums[2*p+1];
+				}
+				long cost = 6;
+				for (int p = 0; p < parts; p++) {
+					final int samples = (n >> porder) - (p == 0 ? order : 0);
+					final int k = riceParam(sums[p], samples);
+					params[p] = k;
+					cost += 4 + (long)samples * (k + 1) + (sums[p] >> k);
+				}
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestOrder = porder;
+					System.arraycopy(params, 0, frame.riceParams, 0, parts);
+				}
+			}
+			frame.riceOrder = bestOrder;
+			return (int)Math.min(bestCost, Integer.MAX_VALUE / 2);
+		}
+
+		private static int riceParam(long sum, int samples) {
+			if (samples <= 0 || sum < samples) return 0;
+			int k = 63 - Long.numberOfLeadingZeros(sum / samples);
+			long best = Long.MAX_VALUE;
+			int result = 0;
+			for (int t = Math.max(0, k - 1); t <= Math.min(MAX_RICE_PARAM, k + 1); t++) {
+				final long cost = (long)samples * (t + 1) + (sum >> t);
+				if (cost < best) {
+					best = cost;
+					result = t;
+				}
+			}
+			return result;
+		}
+
+		private static void fixedResidual(int[] x, int n, int order, long[] r) {
+			switch (order) {
+				case 0:
+					for (int i = 0; i < n; i++) r[i] = x[i];
+					break;
+				case 1:
+					for (int i = 1; i < n; i++) r[i] = (long)x[i] - x[i-1];
+					break;
+				case 2:
+					for (int i = 2; i < n; i++) r[i] = (long)x[i] - 2L * x[i-1] + x[i-2];
+					break;
+				case 3:
+					for (int i = 3; i < n; i++) r[i] = (long)x[i] - 3L * x[i-1] + 3L * x[i-2] - x[i-3];
+					break;
+				default:
+					for (int i = 4; i < n; i++) r[i] = (long)x[i] - 4L * x[i-1] + 6L * x[i-2] - 4L * x[i-3] + x[i-4];
+					break;
+			}
+		}
+
+		private static void lpcResidual(int[] x, int n, int order, int[] coefs, int shift, long[] r) {
+			for (int i = order; i < n; i++) {
+				long sum = 0;
+				for (int j = 0; j < order; j++) sum += (long)coefs[j] * x[i-j-1];
+				r[i] = x[i] - (sum >> shift);
+			}
+		}
+
+		/**
+		* Autocorrelation of the signal under a Tukey window.
+		*/
+
+		private static double[] autocorrelation(int[] x, int n) {
+			final double[] w = new double[n];
+			final int taper = n / 4;
+			for (int i = 0; i < n; i++) {
+				double v = 1.0;
+				if (i < taper) v = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+				else if (i >= n - taper) v = 0.5 - 0.5 * Math.cos(Math.PI * (n - 1 - i) / taper);
+				w[i] = x[i] * v;
+			}
+			final double[] ac = new double[MAX_LPC_ORDER + 1];
+			for (int lag = 0; lag <= MAX_LPC_ORDER; lag++) {
+				double sum = 0.0;
+				for (int i = lag; i < n; i++) sum += w[i] * w[i-lag];
+				ac[lag] = sum;
+			}
+			return ac;
+		}
+
+		/**
+		* Levinson-Durbin recursion, lpc[p] are the coefficients of order p
+		* and error[p] the remaining prediction error.
+		*/
+
+		private static boolean levinson(double[] ac, double[][] lpc, double[] error) {
+			if (ac[0] <= 0.0) return false;
+			double err = ac[0];
+			final double[] a = new double[MAX_LPC_ORDER];
+			final double[] tmp = new double[MAX_LPC_ORDER];
+			for (int p = 0; p < MAX_LPC_ORDER; p++) {
+				double r = -ac[p+1];
+				for (int j = 0; j < p; j++) r -= a[j] * ac[p-j];
+				r /= err;
+				System.arraycopy(a, 0, tmp, 0, p);
+				a[p] = r;
+				for (int j = 0; j < p; j++) a[j] = tmp[j] + r * tmp[p-1-j];
+				err *= (1.0 - r * r);
+				lpc[p+1] = new double[p+1];
+				for (int j = 0; j <= p; j++) lpc[p+1][j] = -a[j];
+				error[p+1] = err;
+				if (err <= 0.0) {
+					for (int q = p + 2; q <= MAX_LPC_ORDER; q++) {
+						lpc[q] = lpc[p+1];
+						error[q] = Double.MAX_VALUE;
+					}
+					break;
+				}
+			}
+			return true;
+		}
+
+		/**
+		* Quantize coefficients to LPC_PRECISION bits, returns the shift or -1.
+		*/
+
+		private static int quantize(double[] lpc, int order, int[] coefs) {
+			double cmax = 0.0;
+			for (int i = 0; i < order; i++) cmax = Math.max(cmax, Math.abs(lpc[i]));
+			if (cmax <= 0.0 || Double.isNaN(cmax) || Double.isInfinite(cmax)) return -1;
+			final int log2cmax = Math.getExponent(cmax) + 1;
+			final int shift = Math.min(15, (LPC_PRECISION - 1) - log2cmax);
+			if (shift < 0) return -1;
+			final int qmax = (1 << (LPC_PRECISION - 1)) - 1;
+			double err = 0.0;
+			for (int i = 0; i < order; i++) {
+				err += lpc[i] * (1 << shift);
+				final long q = Math.max(-qmax - 1, Math.min(qmax, Math.round(err)));
+				coefs[i] = (int)q;
+				err -= q;
+			}
+			return shift;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package openstim.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+* Conversion of per-channel float blocks (-1.0 - 1.0) into interleaved
+* integer PCM. Supports 8, 16 and 24 bit samples, signed or unsigned,
+* little or big endian. The loop for the format is chosen once, the inner
+* loops only clamp, round and store.
+*/
+
+public final class PCMPacker {
+	private static final int S8 = 0;
+	private static final int S16LE = 1;
+	private static final int S16BE = 2;
+	private static final int S24LE = 3;
+	private static final int S24BE = 4;
+
+	private final AudioFormat format;
+	private final int channels;
+	private final int frameSize;
+	private final int sampleBytes;
+	private final int layout;
+	private final float scale;
+	private final int min;
+	private final int max;
+	private final int bias;
+
+	public PCMPacker(AudioFormat format) {
+		if (!isSupported(format)) {
+			throw new IllegalArgumentException("Unsupported PCM format: " + format);
+		}
+		final int bits = format.getSampleSizeInBits();
+		final boolean bigEndian = format.isBigEndian();
+		this.format = format;
+		this.channels = format.getChannels();
+		this.sampleBytes = bits / 8;
+		this.frameSize = channels * sampleBytes;
+		this.scale = (float)(1 << (bits - 1));
+		this.min = -(1 << (bits - 1));
+		this.max = (1 << (bits - 1)) - 1;
+		this.bias = (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED ? 0 : 1 << (bits - 1));
+		switch (bits) {
+			case 8:  layout = S8; break;
+			case 16: layout = (bigEndian ? S16BE : S16LE); break;
+			default: layout = (bigEndian ? S24BE : S24LE); break;
+		}
+	}
+
+	public static boolean isSupported(AudioFormat format) {
+		final AudioFormat.Encoding encoding = format.getEncoding();
+		if (encoding != AudioFormat.Encoding.PCM_SIGNED && encoding != AudioFormat.Encoding.PCM_UNSIGNED) return false;
+		final int bits = format.getSampleSizeInBits();
+		if (bits != 8 && bits != 16 && bits != 24) return false;
+		return (format.getChannels() > 0 && format.getFrameSize() == format.getChannels() * bits / 8);
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	* Pack frames from one block per channel into interleaved PCM.
+	* The same array may be passed for several channels.
+	*/
+
+	public void pack(float[][] src, int srcOffset, int frames, byte[] dst, int dstOffset) {
+		for (int channel = 0; channel < channels; channel++) {
+			pack(src[channel], srcOffset, frames, dst, dstOffset + channel * sampleBytes);
+		}
+	}
+
+	/**
+	* Pack frames of a single channel, dst points to the first sample of the channel.
+	*/
+
+	private void pack(float[] src, int offset, int frames, byte[] dst, int ofs) {
+		final int end = offset + frames;
+		final int step = frameSize;
+		final float scale = this.scale;
+		final int min = this.min;
+		final int max = this.max;
+		final int bias = this.bias;
+
+		switch (layout) {
+			case S8:
+				for (int i = offset; i < end; i++, ofs += step) {
+					final int v = Math.max(min, Math.min(max, Math.round(src[i] * scale))) + bias;
+					dst[ofs] = (byte)v;
+				}
+				break;
+			case S16LE:
+				for (int i = offset; i < end; i++, ofs += step) {
+					final int v = Math.max(min, Math.min(max, Math.round(src[i] * scale))) + bias;
+					dst[ofs] = (byte)v;
+					dst[ofs+1] = (byte)(v >> 8);
+				}
+				break;
+			case S16BE:
+				for (int i = offset; i < end; i++, ofs += step) {
+					final int v = Math.max(min, Math.min(max, Math.round(src[i] * scale))) + bias;
+					dst[ofs] = (byte)(v >> 8);
+					dst[ofs+1] = (byte)v;
+				}
+				break;
+			case S24LE:
+				for (int i = offset; i < end; i++, ofs += step) {
+					final int v = Math.max(min, Math.min(max, Math.round(src[i] * scale))) + bias;
+					dst[ofs] = (byte)v;
+					dst[ofs+1] = (byte)(v >> 8);
+					dst[ofs+2] = (byte)(v >> 16);
+				}
+				break;
+			case S24BE:
+				for (int i = offset; i < end; i++, ofs += step) {
+					final int v = Math.max(min, Math.min(max, Math.round(src[i] * scale))) + bias;
+					dst[ofs] = (byte)(v >> 16);
+					dst[ofs+1] = (byte)(v >> 8);
+					dst[ofs+2] = (byte)v;
+				}
+				break;
+		}
+	}
+}
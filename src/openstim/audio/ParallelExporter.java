@@ -0,0 +1,231 @@
+package openstim.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.sampled.AudioFormat;
+import javax.swing.ProgressMonitor;
+import openstim.model.RenderPool;
+import openstim.model.Session;
+import openstim.model.SessionStream;
+
+/**
+* Export of a session into a WAVE file, rendering segments of the timeline
+* concurrently. The timeline is only split at track boundaries, and every
+* segment starts from the exact synthesis state a serial render would have
+* there, so the file is identical to one rendered in a single pass.
+* The states are found by advancing a separate stream, which only has to
+* run the oscillator phases and envelopes, while the workers render.
+* Sessions which are not worth splitting are streamed through a
+* {@link WaveFileWriter} instead.
+*/
+
+public final class ParallelExporter {
+	private static final int BUFFER_SIZE = 65536;
+	private static final int SEGMENTS_PER_THREAD = 4;
+
+	private final Session session;
+	private final AudioFormat format;
+	private final AtomicLong framesDone = new AtomicLong();
+	private volatile boolean canceled = false;
+
+	public ParallelExporter(Session session, AudioFormat format) {
+		if (!WaveHeader.isSupported(format)) {
+			throw new IllegalArgumentException("Unsupported WAVE format: " + format);
+		}
+		this.session = session;
+		this.format = format;
+	}
+
+	/**
+	* Render the whole session into the given file.
+	* The file is deleted again if the export fails or is canceled.
+	*/
+
+	public void export(File file, ProgressMonitor monitor) throws IOException {
+		final SessionStream stream = session.getStream(format, null);
+		final long[] segments = split(stream.getTrackFrames(), RenderPool.getParallelism() * SEGMENTS_PER_THREAD);
+		final long totalFrames = segments[segments.length - 1];
+		final long dataLength = totalFrames * format.getFrameSize();
+		final ExecutorService executor = RenderPool.getExecutor();
+		final List<Future<Object>> pending = new ArrayList<Future<Object>>();
+		framesDone.set(0);
+		canceled = false;
+
+		if (segments.length <= 2) {
+			// nothing to split, stream the session straight into the file
+			exportSerial(stream, file, monitor, totalFrames);
+			return;
+		}
+
+		// the segments keep the pool busy, channel work would only wait behind them
+		stream.setParallel(false);
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		boolean success = false;
+		try {
+			final FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			writeFully(channel, WaveHeader.create(format, dataLength), 0);
+			if ((dataLength & 1) != 0) {
+				writeFully(channel, ByteBuffer.wrap(new byte[1]), WaveHeader.SIZE + dataLength);
+			}
+
+			// hand out the segments in order as soon as their start state is known
+			for (int i = 0; i < segments.length - 1 && !canceled; i++) {
+				final long start = segments[i];
+				stream.advance(start - stream.getFramePosition());
+				pending.add(executor.submit(new Segment(channel, stream.getState(), segments[i+1] - start)));
+				update(monitor, totalFrames);
+			}
+
+			for (Future<Object> future : pending) {
+				waitFor(future, monitor, totalFrames);
+			}
+			if (canceled) throw new IOException("Canceled by user.");
+			final long expected = WaveHeader.getFileLength(dataLength);
+			if (channel.size() != expected) {
+				throw new IOException(String.format("WAVE file has %d bytes instead of %d.", channel.size(), expected));
+			}
+			channel.force(false);
+			success = true;
+		} finally {
+			canceled = true;
+			for (Future<Object> future : pending) {
+				future.cancel(false);
+			}
+			raf.close();
+			if (!success) file.delete();
+		}
+	}
+
+	private void exportSerial(SessionStream stream, File file, ProgressMonitor monitor, long totalFrames) throws IOException {
+		final WaveFileWriter writer = new WaveFileWriter(file, format, totalFrames * format.getFrameSize());
+		boolean success = false;
+		try {
+			final int frameSize = format.getFrameSize();
+			final byte[] buffer = new byte[BUFFER_SIZE / frameSize * frameSize];
+			int count;
+			while (!canceled && (count = stream.read(buffer, 0, buffer.length)) > 0) {
+				writer.write(buffer, 0, count);
+				framesDone.addAndGet(count / frameSize);
+				update(monitor, totalFrames);
+			}
+			if (canceled) throw new IOException("Canceled by user.");
+			writer.close();
+			success = true;
+		} finally {
+			if (!success) writer.abort();
+		}
+	}
+
+	/**
+	* Choose segment boundaries among the track boundaries,
+	* aiming at the given number of segments of about equal length.
+	*/
+
+	private static long[] split(long[] tracks, int count) {
+		final long total = tracks[tracks.length - 1];
+		final List<Long> result = new ArrayList<Long>();
+		result.add(0L);
+		for (int i = 1, t = 0; i < count; i++) {
+			final long target = total * i / count;
+			while (t < tracks.length - 1 && tracks[t] < target) t++;
+			if (tracks[t] > result.get(result.size() - 1) && tracks[t] < total) result.add(tracks[t]);
+		}
+		result.add(total);
+
+		final long[] segments = new long[result.size()];
+		for (int i = 0; i < segments.length; i++) segments[i] = result.get(i);
+		return segments;
+	}
+
+	private void waitFor(Future<Object> future, ProgressMonitor monitor, long totalFrames) throws IOException {
+		while (true) {
+			try {
+				future.get(200, TimeUnit.MILLISECONDS);
+				return;
+			} catch (TimeoutException e) {
+				update(monitor, totalFrames);
+			} catch (InterruptedException e) {
+				canceled = true;
+				Thread.currentThread().interrupt();
+				throw new IOException("Export interrupted.");
+			} catch (ExecutionException e) {
+				canceled = true;
+				final Throwable cause = e.getCause();
+				if (cause instanceof IOException) throw (IOException)cause;
+				throw new IOException("Rendering failed: " + cause, cause);
+			}
+		}
+	}
+
+	private void update(ProgressMonitor monitor, long totalFrames) {
+		if (monitor == null) return;
+		final long done = framesDone.get();
+		final float rate = format.getSampleRate();
+		monitor.setProgress((int)(100L * done / Math.max(1L, totalFrames)));
+		monitor.setNote(String.format(
+			"Completed %d:%02d of %d:%02d...",
+			(int)(done / rate) / 60, (int)(done / rate) % 60,
+			(int)(totalFrames / rate) / 60, (int)(totalFrames / rate) % 60
+		));
+		if (monitor.isCanceled()) canceled = true;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	* Render one segment from its start state into its place in the file.
+	*/
+
+	private final class Segment implements Callable<Object> {
+		private final FileChannel channel;
+		private final SessionStream.State state;
+		private final long frames;
+
+		public Segment(FileChannel channel, SessionStream.State state, long frames) {
+			this.channel = channel;
+			this.state = state;
+			this.frames = frames;
+		}
+
+		public Object call() throws IOException {
+			final SessionStream stream = session.getStream(format, null);
+			stream.setParallel(false);
+			stream.setState(state);
+			final int frameSize = format.getFrameSize();
+			final byte[] buffer = new byte[BUFFER_SIZE / frameSize * frameSize];
+			final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+			long position = WaveHeader.SIZE + state.getFramePosition() * frameSize;
+			long remaining = frames;
+
+			while (remaining > 0 && !canceled) {
+				final int length = (int)Math.min(buffer.length, remaining * frameSize);
+				final int count = stream.read(buffer, 0, length);
+				if (count <= 0) throw new IOException("Session ended before the end of a segment.");
+				wrapped.clear().limit(count);
+				writeFully(channel, wrapped, position);
+				position += count;
+				remaining -= count / frameSize;
+				framesDone.addAndGet(count / frameSize);
+			}
+			return null;
+		}
+	}
+}
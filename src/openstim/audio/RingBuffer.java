@@ -0,0 +1,101 @@
+package openstim.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Lock-free byte ring buffer for exactly one producer and one consumer thread.
+* Both sides only publish their own running position, so neither ever blocks
+* the other; waiting for data or space is up to the caller. The storage is
+* allocated once, its capacity is rounded up to a power of two.
+*/
+
+public final class RingBuffer {
+	private final byte[] data;
+	private final int mask;
+
+	// total number of bytes written and read so far
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	// last seen position of the other side, only touched by the owning side
+	private long cachedTail = 0;
+	private long cachedHead = 0;
+
+	public RingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+		}
+		final int size = Integer.highestOneBit(capacity - 1) << 1;
+		data = new byte[Math.max(1, size)];
+		mask = data.length - 1;
+	}
+
+	public int capacity() {
+		return data.length;
+	}
+
+	/**
+	* Number of bytes which can be read.
+	*/
+
+	public int available() {
+		return (int)(head.get() - tail.get());
+	}
+
+	/**
+	* Number of bytes which can be written.
+	*/
+
+	public int free() {
+		return data.length - available();
+	}
+
+	/**
+	* Copy as much as fits, called by the producer only.
+	* Returns the number of bytes written.
+	*/
+
+	public int write(byte[] src, int offset, int length) {
+		final long h = head.get();
+		if (h + length - cachedTail > data.length) cachedTail = tail.get();
+		final int n = (int)Math.min(length, data.length - (h - cachedTail));
+		if (n <= 0) return 0;
+
+		final int start = (int)h & mask;
+		final int first = Math.min(n, data.length - start);
+		System.arraycopy(src, offset, data, start, first);
+		System.arraycopy(src, offset + first, data, 0, n - first);
+		head.lazySet(h + n);
+		return n;
+	}
+
+	/**
+	* Copy as much as is available, called by the consumer only.
+	* Returns the number of bytes read.
+	*/
+
+	public int read(byte[] dst, int offset, int length) {
+		final long t = tail.get();
+		if (cachedHead - t < length) cachedHead = head.get();
+		final int n = (int)Math.min(length, cachedHead - t);
+		if (n <= 0) return 0;
+
+		final int start = (int)t & mask;
+		final int first = Math.min(n, data.length - start);
+		System.arraycopy(data, start, dst, offset, first);
+		System.arraycopy(data, 0, dst, offset + first, n - first);
+		tail.lazySet(t + n);
+		return n;
+	}
+
+	/**
+	* Drop all data, only allowed while neither side is active.
+	*/
+
+	public void clear() {
+		head.set(0);
+		tail.set(0);
+		cachedHead = 0;
+		cachedTail = 0;
+	}
+}
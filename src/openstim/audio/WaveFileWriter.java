@@ -0,0 +1,154 @@
+package openstim.audio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+* Streaming writer for WAVE files of unknown length.
+* A placeholder header is written first and patched with the real sizes
+* on close, the sample data passes through one direct buffer, so memory
+* use does not depend on the length of the file. Files which end up larger
+* than 4 GiB are patched into RF64 files.
+*/
+
+public final class WaveFileWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final File file;
+	private final AudioFormat format;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private long dataLength = 0;
+	private long position = WaveHeader.SIZE;
+	private boolean closed = false;
+
+	public WaveFileWriter(File file, AudioFormat format) throws IOException {
+		this(file, format, 0);
+	}
+
+	/**
+	* Create a writer for about the given amount of sample data.
+	* The placeholder header already describes the expected size.
+	*/
+
+	public WaveFileWriter(File file, AudioFormat format, long expectedLength) throws IOException {
+		if (!WaveHeader.isSupported(format)) {
+			throw new IllegalArgumentException("Unsupported WAVE format: " + format);
+		}
+		this.file = file;
+		this.format = format;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE / format.getFrameSize() * format.getFrameSize());
+		try {
+			channel.truncate(0);
+			writeFully(WaveHeader.create(format, expectedLength), 0);
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+	}
+
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	* Number of bytes of sample data written so far.
+	*/
+
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	public void write(byte[] data, int offset, int length) throws IOException {
+		while (length > 0) {
+			final int n = Math.min(length, buffer.remaining());
+			buffer.put(data, offset, n);
+			offset += n;
+			length -= n;
+			dataLength += n;
+			if (!buffer.hasRemaining()) flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		position = writeFully(buffer, position);
+		buffer.clear();
+	}
+
+	/**
+	* Write all of the data at the given position, returns the position after it.
+	*/
+
+	private long writeFully(ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+		return position;
+	}
+
+	/**
+	* Write the remaining data and patch the header with the final sizes.
+	*/
+
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			if ((dataLength & 1) != 0) buffer.put((byte)0);
+			flush();
+			writeFully(WaveHeader.create(format, dataLength), 0);
+			final long expected = WaveHeader.getFileLength(dataLength);
+			if (channel.size() != expected) {
+				throw new IOException(String.format("WAVE file has %d bytes instead of %d.", channel.size(), expected));
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	* Close the writer and delete the incomplete file.
+	*/
+
+	public void abort() {
+		closed = true;
+		try {
+			raf.close();
+		} catch (IOException e) {
+			// ignore, the file is deleted anyway
+		}
+		file.delete();
+	}
+
+	/**
+	* Copy a whole stream into a WAVE file.
+	* Returns the number of bytes of sample data.
+	*/
+
+	public static long write(AudioInputStream stream, File file) throws IOException {
+		final WaveFileWriter writer = new WaveFileWriter(file, stream.getFormat());
+		boolean success = false;
+		try {
+			final byte[] data = new byte[65536 / stream.getFormat().getFrameSize() * stream.getFormat().getFrameSize()];
+			int count;
+			while ((count = stream.read(data, 0, data.length)) > 0) {
+				writer.write(data, 0, count);
+			}
+			writer.close();
+			success = true;
+			return writer.getDataLength();
+		} finally {
+			if (!success) writer.abort();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package openstim.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.sound.sampled.AudioFormat;
+
+/**
+* RIFF/WAVE header for integer PCM data.
+* WAVE files store 8 bit samples unsigned and all others signed, always little endian.
+* Data beyond the 4 GiB limit of RIFF is written as RF64 (EBU Tech 3306). Both
+* variants have the same size, regular files carry a JUNK chunk in place of
+* the ds64 chunk, so a header can be patched from one to the other.
+*/
+
+public final class WaveHeader {
+	public static final int SIZE = 80;
+
+	private static final int DS64_SIZE = 28;
+	private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+	private WaveHeader() {
+	}
+
+	/**
+	* Formats which can be written into a WAVE file without conversion.
+	*/
+
+	public static boolean isSupported(AudioFormat format) {
+		if (!PCMPacker.isSupported(format)) return false;
+		final boolean signed = (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED);
+		if (format.getSampleSizeInBits() == 8) return !signed;
+		return (signed && !format.isBigEndian());
+	}
+
+	/**
+	* The WAVE variant of the given format with the same rate, size and channels.
+	*/
+
+	public static AudioFormat toWaveFormat(AudioFormat format) {
+		final int bits = format.getSampleSizeInBits();
+		return new AudioFormat(format.getSampleRate(), bits, format.getChannels(), bits != 8, false);
+	}
+
+	/**
+	* Whether the given amount of sample data requires RF64.
+	*/
+
+	public static boolean isRF64(long dataLength) {
+		return (dataLength + (dataLength & 1) + SIZE - 8 > MAX_RIFF_SIZE);
+	}
+
+	/**
+	* Length of a complete file with the given amount of sample data,
+	* including the header and the pad byte.
+	*/
+
+	public static long getFileLength(long dataLength) {
+		return SIZE + dataLength + (dataLength & 1);
+	}
+
+	/**
+	* Create the header for the given amount of sample data.
+	* The buffer is ready to be written. Data of odd length has to be
+	* followed by a pad byte, which is already included in the RIFF size.
+	*/
+
+	public static ByteBuffer create(AudioFormat format, long dataLength) {
+		if (!isSupported(format)) {
+			throw new IllegalArgumentException("Unsupported WAVE format: " + format);
+		}
+		if (dataLength < 0) {
+			throw new IllegalArgumentException("Negative data length: " + dataLength);
+		}
+		final int channels = format.getChannels();
+		final int rate = (int)format.getSampleRate();
+		final int frameSize = format.getFrameSize();
+		final long riffSize = dataLength + (dataLength & 1) + SIZE - 8;
+		final boolean rf64 = isRF64(dataLength);
+		final ByteBuffer header = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(ascii(rf64 ? "RF64" : "RIFF"));
+		header.putInt(rf64 ? -1 : (int)riffSize);
+		header.put(ascii("WAVE"));
+
+		// the 64 bit sizes, or the space reserved for them
+		header.put(ascii(rf64 ? "ds64" : "JUNK"));
+		header.putInt(DS64_SIZE);
+		if (rf64) {
+			header.putLong(riffSize);
+			header.putLong(dataLength);
+			header.putLong(dataLength / frameSize);
+			header.putInt(0);
+		} else {
+			header.put(new byte[DS64_SIZE]);
+		}
+
+		header.put(ascii("fmt "));
+		header.putInt(16);
+		header.putShort((short)1);
+		header.putShort((short)channels);
+		header.putInt(rate);
+		header.putInt(rate * frameSize);
+		header.putShort((short)frameSize);
+		header.putShort((short)format.getSampleSizeInBits());
+		header.put(ascii("data"));
+		header.putInt(rf64 ? -1 : (int)dataLength);
+		header.flip();
+		return header;
+	}
+
+	private static byte[] ascii(String s) {
+		final byte[] result = new byte[s.length()];
+		for (int i = 0; i < result.length; i++) result[i] = (byte)s.charAt(i);
+		return result;
+	}
+}
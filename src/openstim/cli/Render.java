@@ -0,0 +1,184 @@
+package openstim.cli;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import javax.sound.sampled.AudioFormat;
+import openstim.audio.WaveHeader;
+import openstim.model.ScheduledSession;
+import openstim.model.SessionStream;
+
+/**
+* Headless renderer, writes a session file as WAVE or raw PCM to standard
+* output or a file. Nothing here touches AWT or the audio hardware, so it
+* runs on machines without a display or sound device.
+* Raw output is signed little endian, WAVE output follows the WAVE rules
+* (unsigned 8 bit, RF64 beyond 4 GiB). Exits with 2 on invalid arguments
+* and with 1 if the session cannot be read or the output cannot be written.
+*/
+
+public final class Render {
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final String USAGE =
+		"usage: java -cp OpenStim.jar openstim.cli.Render [options] session.stim\n" +
+		"  -r, --rate HZ          sample rate (default 44100)\n" +
+		"  -b, --bits N           bits per sample, 8, 16 or 24 (default 16)\n" +
+		"  -c, --channels N       output channels, 1 to 8 (default: those of the session)\n" +
+		"  -s, --start TIME       start time (default 0)\n" +
+		"  -e, --end TIME         end time (default: end of the session)\n" +
+		"  -f, --format FORMAT    wav or raw (default wav)\n" +
+		"  -o, --output FILE      write to FILE instead of standard output\n" +
+		"TIME is given in seconds, as m:ss or as h:mm:ss, with optional decimals.";
+
+	private int sampleRate = 44100;
+	private int sampleSize = 16;
+	private int channels = 0;
+	private double start = 0.0;
+	private double end = -1.0;
+	private boolean raw = false;
+	private File output = null;
+	private File input = null;
+
+	private Render() {
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		final Render render = new Render();
+		try {
+			render.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Render: " + e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try {
+			render.run();
+		} catch (IOException e) {
+			System.err.println("Render: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("-h") || arg.equals("--help")) {
+				System.out.println(USAGE);
+				System.exit(0);
+			} else if (arg.equals("-r") || arg.equals("--rate")) {
+				sampleRate = parseInt(arg, value(args, ++i), 1000, 384000);
+			} else if (arg.equals("-b") || arg.equals("--bits")) {
+				sampleSize = parseInt(arg, value(args, ++i), 8, 24);
+				if (sampleSize % 8 != 0) throw new IllegalArgumentException("Bits per sample must be 8, 16 or 24.");
+			} else if (arg.equals("-c") || arg.equals("--channels")) {
+				channels = parseInt(arg, value(args, ++i), 1, 8);
+			} else if (arg.equals("-s") || arg.equals("--start")) {
+				start = parseTime(arg, value(args, ++i));
+			} else if (arg.equals("-e") || arg.equals("--end")) {
+				end = parseTime(arg, value(args, ++i));
+			} else if (arg.equals("-f") || arg.equals("--format")) {
+				final String format = value(args, ++i);
+				if (!format.equals("wav") && !format.equals("raw")) {
+					throw new IllegalArgumentException(String.format("Unknown output format '%s'.", format));
+				}
+				raw = format.equals("raw");
+			} else if (arg.equals("-o") || arg.equals("--output")) {
+				final String name = value(args, ++i);
+				output = (name.equals("-") ? null : new File(name));
+			} else if (arg.startsWith("-") && arg.length() > 1) {
+				throw new IllegalArgumentException(String.format("Unknown option '%s'.", arg));
+			} else if (input == null) {
+				input = new File(arg);
+			} else {
+				throw new IllegalArgumentException("Only one session file can be rendered at a time.");
+			}
+		}
+		if (input == null) throw new IllegalArgumentException("No session file given.");
+		if (end >= 0.0 && end < start) throw new IllegalArgumentException("The end time lies before the start time.");
+	}
+
+	private void run() throws IOException {
+		final ScheduledSession session = new ScheduledSession();
+		session.load(input);
+		if (channels == 0) channels = session.getNumChannels();
+
+		final AudioFormat pcm = new AudioFormat(sampleRate, sampleSize, channels, true, false);
+		final AudioFormat format = (raw ? pcm : WaveHeader.toWaveFormat(pcm));
+		final SessionStream stream = session.getStream(format, null);
+		final int frameSize = format.getFrameSize();
+		final long total = stream.getFrameLength();
+		final long first = Math.min(total, Math.round(start * sampleRate));
+		final long last = (end < 0.0 ? total : Math.min(total, Math.round(end * sampleRate)));
+		final long dataLength = Math.max(0L, last - first) * frameSize;
+
+		final OutputStream out = (output != null ? new FileOutputStream(output) : new FileOutputStream(FileDescriptor.out));
+		boolean success = false;
+		try {
+			if (!raw) {
+				final ByteBuffer header = WaveHeader.create(format, dataLength);
+				out.write(header.array(), header.arrayOffset() + header.position(), header.remaining());
+			}
+			// seconds as float are not frame exact in long sessions, skip whole frames
+			stream.rewind();
+			stream.advance(first - stream.getFramePosition());
+
+			final byte[] buffer = new byte[BUFFER_SIZE / frameSize * frameSize];
+			long remaining = dataLength;
+			while (remaining > 0) {
+				final int count = stream.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+				if (count <= 0) break;
+				out.write(buffer, 0, count);
+				remaining -= count;
+			}
+			if (remaining > 0) {
+				// the stream ended early, the header promised more
+				throw new IOException("Session ended before the end of the range.");
+			}
+			if (!raw && (dataLength & 1) != 0) out.write(0);
+			success = true;
+		} finally {
+			out.close();
+			if (!success && output != null) output.delete();
+		}
+	}
+
+	private static String value(String[] args, int i) {
+		if (i >= args.length) throw new IllegalArgumentException(String.format("Option '%s' needs a value.", args[i - 1]));
+		return args[i];
+	}
+
+	private static int parseInt(String option, String s, int min, int max) {
+		try {
+			final int v = Integer.parseInt(s);
+			if (v >= min && v <= max) return v;
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException(String.format("Invalid value '%s' for %s, expected %d to %d.", s, option, min, max));
+	}
+
+	/**
+	* Parse seconds, m:ss or h:mm:ss, each with optional decimals on the last field.
+	*/
+
+	private static double parseTime(String option, String s) {
+		try {
+			final String[] fields = s.split(":", -1);
+			if (fields.length > 3) throw new NumberFormatException();
+			double result = 0.0;
+			for (int i = 0; i < fields.length; i++) {
+				final double v = (i < fields.length - 1 ? Integer.parseInt(fields[i]) : Double.parseDouble(fields[i]));
+				if (v < 0.0 || (i > 0 && v >= 60.0)) throw new NumberFormatException();
+				result = result * 60.0 + v;
+			}
+			return result;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Invalid time '%s' for %s.", s, option));
+		}
+	}
+}
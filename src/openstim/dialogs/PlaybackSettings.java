@@ -39,9 +39,14 @@ import openstim.GUI;
 import openstim.Settings;
 
 public class PlaybackSettings extends JDialog implements ActionListener {
+	private static final int[] BUFFER_TIMES = { 20, 50, 100, 200, 500, 1000, 2000 };
+	private static final int[] BLOCK_TIMES = { 1, 2, 5, 10, 20, 50, 100 };
+
 	private Settings settings;
 	private Mixer.Info currentDevice;
 	private AudioFormat currentFormat;
+	private int currentBufferTime;
+	private int currentBlockTime;
 	private boolean canceled = true;
 
 	private JCheckBox defaultCheckBox;
@@ -49,6 +54,8 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 	private JComboBox sampleRateComboBox;
 	private JComboBox sampleSizeComboBox;
 	private JComboBox channelsComboBox;
+	private JComboBox bufferTimeComboBox;
+	private JComboBox blockTimeComboBox;
 
 	public PlaybackSettings(Settings settings) {
 		super((Frame)null, "OpenStim playback settings", true);
@@ -56,6 +63,8 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 		this.settings = settings;
 		this.currentDevice = settings.playbackDevice;
 		this.currentFormat = settings.playbackFormat;
+		this.currentBufferTime = settings.playbackBufferTime;
+		this.currentBlockTime = settings.playbackBlockTime;
 
 		deviceComboBox = new JComboBox();
 		Iterator<Mixer.Info> it = settings.audioHardware.keySet().iterator();
@@ -88,6 +97,25 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 		channelsComboBox.setActionCommand("channelChanged");
 		channelsComboBox.addActionListener(this);
 
+		bufferTimeComboBox = new JComboBox();
+		Set<TimeItem> bufferTimes = new TreeSet<TimeItem>();
+		for (int i = 0; i < BUFFER_TIMES.length; i++) {
+			bufferTimes.add(new TimeItem(BUFFER_TIMES[i]));
+		}
+		bufferTimes.add(new TimeItem(currentBufferTime));
+		Iterator<TimeItem> it3 = bufferTimes.iterator();
+		while (it3.hasNext()) {
+			TimeItem item = it3.next();
+			bufferTimeComboBox.addItem(item);
+			if (item.value == currentBufferTime) bufferTimeComboBox.setSelectedItem(item);
+		}
+		bufferTimeComboBox.setActionCommand("bufferTimeChanged");
+		bufferTimeComboBox.addActionListener(this);
+
+		blockTimeComboBox = new JComboBox();
+		blockTimeComboBox.setActionCommand("blockTimeChanged");
+		blockTimeComboBox.addActionListener(this);
+
 		getContentPane().setLayout(new BoxLayout(getContentPane(), BoxLayout.PAGE_AXIS));
 
 		GridBagLayout layout = new GridBagLayout();
@@ -100,7 +128,9 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 			null,
 			new JLabel("Channels:"),
 			new JLabel("Sample size:"),
-			new JLabel("Sample rate:")
+			new JLabel("Sample rate:"),
+			new JLabel("Buffer size:"),
+			new JLabel("Block size:")
 		};
 
 		for (int i = 0; i < components.length; i++) {
@@ -118,7 +148,9 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 			defaultCheckBox,
 			channelsComboBox,
 			sampleSizeComboBox,
-			sampleRateComboBox
+			sampleRateComboBox,
+			bufferTimeComboBox,
+			blockTimeComboBox
 		};
 
 		for (int i = 0; i < components.length; i++) {
@@ -148,6 +180,7 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 
 		pack();
 		onDeviceChanged();
+		onBufferTimeChanged();
 		setMinimumSize(new Dimension(400, getPreferredSize().height + 16));
 		setResizable(false);
 	}
@@ -165,9 +198,15 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 			onSampleSizeChanged();
 		} else if (e.getActionCommand().equals("sampleRateChanged")) {
 			onSampleRateChanged();
+		} else if (e.getActionCommand().equals("bufferTimeChanged")) {
+			onBufferTimeChanged();
+		} else if (e.getActionCommand().equals("blockTimeChanged")) {
+			onBlockTimeChanged();
 		} else if (e.getActionCommand().equals("confirm")) {
 			settings.playbackDevice = currentDevice;
 			settings.playbackFormat = currentFormat;
+			settings.playbackBufferTime = currentBufferTime;
+			settings.playbackBlockTime = currentBlockTime;
 			settings.store();
 			canceled = false;
 			setVisible(false);
@@ -322,6 +361,43 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 		}
 	}
 
+	/**
+	* Blocks may fill at most half of the buffer, otherwise the line
+	* runs dry while the next block is written.
+	*/
+
+	private void onBufferTimeChanged() {
+		TimeItem bufferTime = (TimeItem)bufferTimeComboBox.getSelectedItem();
+		if (bufferTime == null) return;
+		currentBufferTime = bufferTime.value;
+
+		Set<TimeItem> temp = new TreeSet<TimeItem>();
+		for (int i = 0; i < BLOCK_TIMES.length; i++) {
+			if (BLOCK_TIMES[i] <= currentBufferTime / 2) temp.add(new TimeItem(BLOCK_TIMES[i]));
+		}
+		if (currentBlockTime <= currentBufferTime / 2) temp.add(new TimeItem(currentBlockTime));
+		if (temp.isEmpty()) temp.add(new TimeItem(1));
+
+		blockTimeComboBox.removeActionListener(this);
+		blockTimeComboBox.removeAllItems();
+		Iterator<TimeItem> it = temp.iterator();
+		TimeItem selection = null;
+		while (it.hasNext()) {
+			TimeItem item = it.next();
+			blockTimeComboBox.addItem(item);
+			if (selection == null || item.value <= currentBlockTime) selection = item;
+		}
+		blockTimeComboBox.setSelectedItem(selection);
+		blockTimeComboBox.addActionListener(this);
+		onBlockTimeChanged();
+	}
+
+	private void onBlockTimeChanged() {
+		TimeItem blockTime = (TimeItem)blockTimeComboBox.getSelectedItem();
+		if (blockTime == null) return;
+		currentBlockTime = blockTime.value;
+	}
+
 	// ----------------------------------------------------------------------
 
 	private static class DeviceItem {
@@ -345,6 +421,15 @@ public class PlaybackSettings extends JDialog implements ActionListener {
 		public String toString() { return String.format("%d bit PCM", value); }
 	}
 
+	private static class TimeItem implements Comparable<TimeItem> {
+		public int value;
+		public TimeItem(int value) { this.value = value; }
+		public int compareTo(TimeItem other) { return value - other.value; }
+		public boolean equals(Object other) { return (other instanceof TimeItem && ((TimeItem)other).value == value); }
+		public int hashCode() { return value; }
+		public String toString() { return String.format("%d ms", value); }
+	}
+
 	public static class ChannelsItem implements Comparable<ChannelsItem> {
 		public int value;
 		public ChannelsItem(int value) { this.value = value; }
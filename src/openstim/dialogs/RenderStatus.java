@@ -0,0 +1,195 @@
+package openstim.dialogs;
+
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.Frame;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSeparator;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import openstim.GUI;
+import openstim.PlaybackManager;
+import openstim.RenderMetrics;
+
+/**
+* Live view of the render metrics, refreshed twice a second while shown.
+*/
+
+public class RenderStatus extends JDialog implements ActionListener {
+	private static final int REFRESH_INTERVAL = 500;
+	private static final int BAR_WIDTH = 40;
+
+	private PlaybackManager playbackManager;
+	private Timer timer;
+
+	private JLabel ratioLabel;
+	private JLabel blockTimeLabel;
+	private JLabel deadlineLabel;
+	private JLabel ringFillLabel;
+	private JLabel underrunsLabel;
+	private JTextArea histogramArea;
+
+	public RenderStatus(Frame owner, PlaybackManager playbackManager) {
+		super(owner, "OpenStim render status", false);
+		setIconImage(GUI.APP_ICON);
+		this.playbackManager = playbackManager;
+
+		ratioLabel = new JLabel();
+		blockTimeLabel = new JLabel();
+		deadlineLabel = new JLabel();
+		ringFillLabel = new JLabel();
+		underrunsLabel = new JLabel();
+		histogramArea = new JTextArea(RenderMetrics.BUCKETS, 0);
+		histogramArea.setEditable(false);
+		histogramArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+		histogramArea.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+
+		getContentPane().setLayout(new BoxLayout(getContentPane(), BoxLayout.PAGE_AXIS));
+
+		GridBagLayout layout = new GridBagLayout();
+		JPanel mainPanel = new JPanel(layout);
+		Insets insets = new Insets(2, 4, 2, 4);
+		getContentPane().add(mainPanel);
+
+		JComponent[][] components = {
+			{ new JLabel("Render time:"), ratioLabel },
+			{ new JLabel("Block time:"), blockTimeLabel },
+			{ new JLabel("Deadline:"), deadlineLabel },
+			{ new JLabel("Ring buffer:"), ringFillLabel },
+			{ new JLabel("Line buffer:"), underrunsLabel },
+			{ new JLabel("Blocks by time:"), null }
+		};
+
+		for (int i = 0; i < components.length; i++) {
+			layout.setConstraints(components[i][0], new GridBagConstraints(
+				0, i, 1, 1, 0, 0,
+				GridBagConstraints.EAST, GridBagConstraints.NONE,
+				insets, 0, 0
+			));
+			mainPanel.add(components[i][0]);
+			if (components[i][1] == null) continue;
+			layout.setConstraints(components[i][1], new GridBagConstraints(
+				1, i, 1, 1, 1, 0,
+				GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL,
+				insets, 0, 0
+			));
+			mainPanel.add(components[i][1]);
+		}
+
+		layout.setConstraints(histogramArea, new GridBagConstraints(
+			0, components.length, 2, 1, 1, 1,
+			GridBagConstraints.WEST, GridBagConstraints.BOTH,
+			insets, 0, 0
+		));
+		mainPanel.add(histogramArea);
+
+		JSeparator separator = new JSeparator();
+		getContentPane().add(separator);
+
+		JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.TRAILING));
+		getContentPane().add(buttonPanel);
+
+		JButton reset = new JButton("Reset");
+		reset.setActionCommand("reset");
+		reset.addActionListener(this);
+		buttonPanel.add(reset);
+
+		JButton close = new JButton("Close");
+		close.setActionCommand("close");
+		close.addActionListener(this);
+		buttonPanel.add(close);
+
+		// only poll while somebody is looking
+		timer = new Timer(REFRESH_INTERVAL, this);
+		timer.setActionCommand("refresh");
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentShown(ComponentEvent e) {
+				refresh();
+				timer.start();
+			}
+
+			@Override
+			public void componentHidden(ComponentEvent e) {
+				timer.stop();
+			}
+		});
+
+		refresh();
+		pack();
+		setMinimumSize(new Dimension(400, getPreferredSize().height + 16));
+	}
+
+	public void actionPerformed(ActionEvent e) {
+		if (e.getActionCommand().equals("refresh")) {
+			refresh();
+		} else if (e.getActionCommand().equals("reset")) {
+			playbackManager.getMetrics().reset();
+		} else if (e.getActionCommand().equals("close")) {
+			setVisible(false);
+		}
+	}
+
+	private void refresh() {
+		final RenderMetrics metrics = playbackManager.getMetrics();
+		ratioLabel.setText(String.format(
+			"%.1f %% of realtime, recently %.1f %%",
+			100.0f * metrics.getRealtimeRatio(),
+			100.0f * metrics.getRecentRealtimeRatio()
+		));
+		blockTimeLabel.setText(String.format(
+			"mean %.2f ms, 99 %% below %.2f ms, max %.2f ms",
+			metrics.getMeanBlockTime(),
+			metrics.getBlockTimePercentile(0.99f),
+			metrics.getMaxBlockTime()
+		));
+		deadlineLabel.setText(String.format(
+			"%.0f ms, missed by %d of %d blocks",
+			metrics.getDeadline(),
+			metrics.getDeadlineMisses(),
+			metrics.getBlocks()
+		));
+		ringFillLabel.setText(String.format(
+			"%.0f %% full, lowest %.0f %%",
+			100.0f * metrics.getRingFill(),
+			100.0f * metrics.getMinRingFill()
+		));
+		underrunsLabel.setText(String.format(
+			"%d underruns",
+			playbackManager.getUnderruns()
+		));
+
+		// one bar per bucket, scaled to the largest one
+		final long[] counts = metrics.getBlockTimeHistogram();
+		long max = 1;
+		for (int i = 0; i < counts.length; i++) {
+			max = Math.max(max, counts[i]);
+		}
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < counts.length; i++) {
+			final long limit = RenderMetrics.getBucketLimit(i);
+			final String range = (limit < Long.MAX_VALUE ? String.format("< %.3f ms", limit / 1000.0f) : "longer");
+			final int width = (int)Math.round((double)BAR_WIDTH * counts[i] / max);
+			if (i > 0) text.append('\n');
+			text.append(String.format("%-12s %9d ", range, counts[i]));
+			for (int j = 0; j < width; j++) {
+				text.append('#');
+			}
+		}
+		histogramArea.setText(text.toString());
+	}
+}
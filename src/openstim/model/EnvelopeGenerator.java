@@ -0,0 +1,147 @@
+package openstim.model;
+
+import java.util.Arrays;
+
+/**
+* On/off envelope following an {@link Interval}.
+* The interval is compiled into four segments measured in samples
+* (attack ramp, on, release ramp, off) which are filled block by block.
+* The position within the cycle is kept here and not in the interval,
+* so any number of generators may follow the same interval.
+*/
+
+public final class EnvelopeGenerator {
+	public static final int ATTACK  = 0;
+	public static final int ON      = 1;
+	public static final int RELEASE = 2;
+	public static final int OFF     = 3;
+
+	private final float sampleRate;
+	private final long[] length = new long[4];
+	private int segment;
+	private long position;
+
+	public EnvelopeGenerator(float sampleRate) {
+		this.sampleRate = sampleRate;
+		reset();
+	}
+
+	public void reset() {
+		segment = ATTACK;
+		position = 0;
+	}
+
+	public int getSegment() {
+		return segment;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	* Restore a position previously taken from getSegment and getPosition.
+	*/
+
+	public void setState(int segment, long position) {
+		this.segment = segment;
+		this.position = position;
+	}
+
+	/**
+	* Follow the given interval.
+	*/
+
+	public void setInterval(Interval interval) {
+		for (int i = 0; i < length.length; i++) {
+			length[i] = toSamples(interval.getParam(i));
+		}
+	}
+
+	/**
+	* Follow the interpolation s1 * i1 + s2 * i2 of two intervals,
+	* without creating an intermediate interval.
+	*/
+
+	public void setInterval(float s1, Interval i1, float s2, Interval i2) {
+		for (int i = 0; i < length.length; i++) {
+			length[i] = toSamples(s1 * i1.getParam(i) + s2 * i2.getParam(i));
+		}
+	}
+
+	private long toSamples(float t) {
+		return Math.max(0L, Math.round((double)t * sampleRate));
+	}
+
+	/**
+	* Advance the position as nextBlock would, without producing output.
+	*/
+
+	public void skip(int count) {
+		while (count > 0) {
+			if (segment == ON && length[RELEASE] == 0 && length[OFF] == 0) return;
+			if (segment == OFF && length[ATTACK] == 0 && length[ON] == 0) return;
+			if (position >= length[segment]) {
+				if (length[0] + length[1] + length[2] + length[3] == 0) return;
+				position -= length[segment];
+				segment = (segment + 1) & 3;
+				continue;
+			}
+			final int n = (int)Math.min(count, length[segment] - position);
+			position += n;
+			count -= n;
+		}
+	}
+
+	/**
+	* Fill a block with the envelope and advance the position.
+	* Ramps reach their end value on the last sample of the segment.
+	*/
+
+	public void nextBlock(float[] out, int offset, int count) {
+		final int end = offset + count;
+		int i = offset;
+		while (i < end) {
+			// the envelope stays on (or off) as long as there is nothing else
+			if (segment == ON && length[RELEASE] == 0 && length[OFF] == 0) {
+				Arrays.fill(out, i, end, 1.0f);
+				return;
+			}
+			if (segment == OFF && length[ATTACK] == 0 && length[ON] == 0) {
+				Arrays.fill(out, i, end, 0.0f);
+				return;
+			}
+			if (position >= length[segment]) {
+				if (length[0] + length[1] + length[2] + length[3] == 0) {
+					Arrays.fill(out, i, end, 1.0f);
+					return;
+				}
+				position -= length[segment];
+				segment = (segment + 1) & 3;
+				continue;
+			}
+
+			final int n = (int)Math.min(end - i, length[segment] - position);
+			switch (segment) {
+				case ATTACK: {
+					final double inc = 1.0 / length[ATTACK];
+					for (int j = 0; j < n; j++) out[i+j] = (float)((position + j + 1) * inc);
+					break;
+				}
+				case RELEASE: {
+					final double inc = 1.0 / length[RELEASE];
+					for (int j = 0; j < n; j++) out[i+j] = (float)(1.0 - (position + j + 1) * inc);
+					break;
+				}
+				case ON:
+					Arrays.fill(out, i, i + n, 1.0f);
+					break;
+				default:
+					Arrays.fill(out, i, i + n, 0.0f);
+					break;
+			}
+			position += n;
+			i += n;
+		}
+	}
+}
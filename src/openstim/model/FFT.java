@@ -0,0 +1,54 @@
+package openstim.model;
+
+/**
+* In-place radix-2 fast fourier transform.
+* This is only used for preparing tables, so it favours simplicity over speed.
+*/
+
+final class FFT {
+	private FFT() {
+	}
+
+	/**
+	* Transform the complex sequence re + i * im, the length has to be a power of two.
+	* The inverse transform is not normalized, divide by the length afterwards.
+	*/
+
+	public static void transform(double[] re, double[] im, boolean inverse) {
+		final int n = re.length;
+
+		// bit reversal permutation
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+			j ^= bit;
+			if (i < j) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+
+		// butterflies
+		for (int len = 2; len <= n; len <<= 1) {
+			final double angle = (inverse ? 2.0 : -2.0) * Math.PI / len;
+			final double wr = Math.cos(angle);
+			final double wi = Math.sin(angle);
+			for (int i = 0; i < n; i += len) {
+				double cr = 1.0, ci = 0.0;
+				for (int j = 0; j < len / 2; j++) {
+					final int a = i + j;
+					final int b = a + len / 2;
+					final double xr = re[b] * cr - im[b] * ci;
+					final double xi = re[b] * ci + im[b] * cr;
+					re[b] = re[a] - xr;
+					im[b] = im[a] - xi;
+					re[a] += xr;
+					im[a] += xi;
+					final double t = cr * wr - ci * wi;
+					ci = cr * wi + ci * wr;
+					cr = t;
+				}
+			}
+		}
+	}
+}
@@ -105,61 +105,17 @@ public final class Interval {
 		return xml;
 	}
 
-	private int state_phase = 0;
-	private float state_time = 0.0f;
-
-	public void reset() {
-		state_phase = 0;
-		state_time = 0.0f;
-	}
+	/**
+	* Counterpart of toXML.
+	*/
 
-	public float nextValue(float step) {
-		if (state_phase == 1 && t_release < Float.MIN_VALUE && t_off < Float.MIN_VALUE) return 1.0f;
-		if (state_phase == 3 && t_attack < Float.MIN_VALUE && t_on < Float.MIN_VALUE) return 0.0f;
-		state_time += step;
-		while (true) {
-			if (state_phase == 0) {
-				if (state_time > t_attack || t_attack < Float.MIN_VALUE) {
-					state_phase = 1;
-					state_time -= t_attack;
-				} else {
-					return state_time / t_attack;
-				}
-			} else if (state_phase == 1) {
-				if (state_time > t_on || t_on < Float.MIN_VALUE) {
-					state_phase = 2;
-					state_time -= t_on;
-				} else {
-					return 1.0f;
-				}
-			} else if (state_phase == 2) {
-				if (state_time > t_release || t_release < Float.MIN_VALUE) {
-					state_phase = 3;
-					state_time -= t_release;
-				} else {
-					return 1.0f - state_time / t_release;
-				}
-			} else {
-				if (state_time > t_off || t_off < Float.MIN_VALUE) {
-					state_phase = 0;
-					state_time -= t_off;
-				} else {
-					return 0.0f;
-				}
-			}
-		}
+	public static Interval fromXML(Element xml) {
+		Interval result = new Interval();
+		result.t_attack = Float.parseFloat(xml.getAttribute("attack"));
+		result.t_on = Float.parseFloat(xml.getAttribute("on"));
+		result.t_release = Float.parseFloat(xml.getAttribute("release"));
+		result.t_off = Float.parseFloat(xml.getAttribute("off"));
+		result.normalize();
+		return result;
 	}
-
-	/*public static final class State {
-		public int phase;
-		public float time;
-
-		public State() {
-			phase = 0;
-			time = 0.0f;
-		}
-	}*/
 }
-
-
-
@@ -0,0 +1,266 @@
+package openstim.model;
+
+import java.util.Arrays;
+
+/**
+* Column storage for the per-track parameters of all channels.
+* Every (channel, key) pair forms a row holding one value per track in a
+* primitive array, intervals and waveforms are kept in separate reference
+* rows, and the explicit flags of a row are packed into a bit mask.
+*/
+
+final class ParameterTable {
+	public static final int KEYS_PER_CHANNEL = 13;
+
+	public static final int KEY_INTERVAL   = 0;
+	public static final int KEY_BASE_WAVE  = 1;
+	public static final int KEY_BASE_FREQ  = 2;
+	public static final int KEY_BASE_AMPL  = 3;
+	public static final int KEY_FMOD_WAVE  = 4;
+	public static final int KEY_FMOD_FREQ  = 5;
+	public static final int KEY_FMOD_AMPL  = 6;
+	public static final int KEY_AMOD1_WAVE = 7;
+	public static final int KEY_AMOD1_FREQ = 8;
+	public static final int KEY_AMOD1_AMPL = 9;
+	public static final int KEY_AMOD2_WAVE = 10;
+	public static final int KEY_AMOD2_FREQ = 11;
+	public static final int KEY_AMOD2_AMPL = 12;
+
+	private static final float[] DEFAULTS = { 0.0f, 0.0f, 500.0f, 50.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 0.0f };
+	private static final float[] MINIMUM  = { 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -10000.0f, 0.0f, 0.0f, -100.0f, 0.0f, 0.0f, -100.0f };
+	private static final float[] MAXIMUM  = { 0.0f, 0.0f, 10000.0f, 100.0f, 0.0f, 10000.0f, 10000.0f, 0.0f, 10000.0f, 100.0f, 0.0f, 10000.0f, 100.0f };
+
+	private final int channels;
+	private int capacity;
+
+	/** Float rows, indexed by [channel * KEYS_PER_CHANNEL + key][track], null for other keys. */
+	public final float[][] floats;
+
+	/** Waveform rows, indexed by [channel * KEYS_PER_CHANNEL + key][track], null for other keys. */
+	public final Waveform[][] waveforms;
+
+	/** Interval rows, indexed by [channel][track]. */
+	public final Interval[][] intervals;
+
+	/** Explicit flags, indexed by [channel * KEYS_PER_CHANNEL + key][track / 64]. */
+	private final long[][] explicit;
+
+	public ParameterTable(int channels, int capacity) {
+		this.channels = channels;
+		this.capacity = capacity;
+		final int rows = channels * KEYS_PER_CHANNEL;
+		floats = new float[rows][];
+		waveforms = new Waveform[rows][];
+		intervals = new Interval[channels][];
+		explicit = new long[rows][];
+
+		for (int channel = 0; channel < channels; channel++) {
+			intervals[channel] = new Interval[capacity];
+			for (int key = 0; key < KEYS_PER_CHANNEL; key++) {
+				final int row = channel * KEYS_PER_CHANNEL + key;
+				if (isFloat(key)) floats[row] = new float[capacity];
+				if (isWaveform(key)) waveforms[row] = new Waveform[capacity];
+				explicit[row] = new long[(capacity + 63) / 64];
+			}
+		}
+	}
+
+	/**
+	* Copy the given number of tracks of another table.
+	* Waveforms and intervals are shared, they are never modified once stored.
+	*/
+
+	public ParameterTable(ParameterTable other, int tracks) {
+		this.channels = other.channels;
+		this.capacity = Math.max(1, tracks);
+		final int rows = channels * KEYS_PER_CHANNEL;
+		floats = new float[rows][];
+		waveforms = new Waveform[rows][];
+		intervals = new Interval[channels][];
+		explicit = new long[rows][];
+
+		for (int channel = 0; channel < channels; channel++) {
+			intervals[channel] = Arrays.copyOf(other.intervals[channel], capacity);
+		}
+		for (int row = 0; row < rows; row++) {
+			if (other.floats[row] != null) floats[row] = Arrays.copyOf(other.floats[row], capacity);
+			if (other.waveforms[row] != null) waveforms[row] = Arrays.copyOf(other.waveforms[row], capacity);
+			explicit[row] = Arrays.copyOf(other.explicit[row], (capacity + 63) / 64);
+		}
+	}
+
+	public static boolean isFloat(int key) {
+		return (key != KEY_INTERVAL && key % 3 != 1);
+	}
+
+	public static boolean isWaveform(int key) {
+		return (key % 3 == 1);
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	* Reset a track to the default values of all parameters.
+	*/
+
+	public void initTrack(int track, boolean isExplicit) {
+		for (int channel = 0; channel < channels; channel++) {
+			intervals[channel][track] = new Interval();
+			for (int key = 0; key < KEYS_PER_CHANNEL; key++) {
+				final int row = channel * KEYS_PER_CHANNEL + key;
+				if (floats[row] != null) floats[row][track] = DEFAULTS[key];
+				if (waveforms[row] != null) waveforms[row][track] = new Waveform();
+				setExplicit(channel, track, key, isExplicit);
+			}
+		}
+	}
+
+	/**
+	* Grow all rows so that they can hold at least the given number of tracks.
+	*/
+
+	public void ensureCapacity(int tracks) {
+		if (tracks <= capacity) return;
+		final int size = Math.max(tracks, capacity * 2);
+		for (int channel = 0; channel < channels; channel++) {
+			intervals[channel] = Arrays.copyOf(intervals[channel], size);
+		}
+		for (int row = 0; row < floats.length; row++) {
+			if (floats[row] != null) floats[row] = Arrays.copyOf(floats[row], size);
+			if (waveforms[row] != null) waveforms[row] = Arrays.copyOf(waveforms[row], size);
+			explicit[row] = Arrays.copyOf(explicit[row], (size + 63) / 64);
+		}
+		capacity = size;
+	}
+
+	/**
+	* Move the tracks starting at index one position to the right.
+	*/
+
+	public void insert(int index, int tracks) {
+		ensureCapacity(tracks + 1);
+		move(index, index + 1, tracks - index);
+	}
+
+	/**
+	* Move the tracks behind index one position to the left.
+	*/
+
+	public void remove(int index, int tracks) {
+		move(index + 1, index, tracks - index - 1);
+	}
+
+	private void move(int from, int to, int count) {
+		for (int channel = 0; channel < channels; channel++) {
+			System.arraycopy(intervals[channel], from, intervals[channel], to, count);
+		}
+		for (int row = 0; row < floats.length; row++) {
+			if (floats[row] != null) System.arraycopy(floats[row], from, floats[row], to, count);
+			if (waveforms[row] != null) System.arraycopy(waveforms[row], from, waveforms[row], to, count);
+			final long[] bits = explicit[row];
+			if (to > from) {
+				for (int i = count - 1; i >= 0; i--) setBit(bits, to + i, getBit(bits, from + i));
+			} else {
+				for (int i = 0; i < count; i++) setBit(bits, to + i, getBit(bits, from + i));
+			}
+		}
+	}
+
+	public boolean isExplicit(int channel, int track, int key) {
+		return getBit(explicit[channel * KEYS_PER_CHANNEL + key], track);
+	}
+
+	public void setExplicit(int channel, int track, int key, boolean value) {
+		setBit(explicit[channel * KEYS_PER_CHANNEL + key], track, value);
+	}
+
+	/**
+	* Find the first explicit track at or behind the given track.
+	* Returns limit if there is no such track before limit.
+	*/
+
+	public int nextExplicit(int channel, int key, int track, int limit) {
+		final long[] bits = explicit[channel * KEYS_PER_CHANNEL + key];
+		int word = track >> 6;
+		if (word >= bits.length) return limit;
+		long w = bits[word] & (-1L << (track & 63));
+		while (w == 0) {
+			if (++word >= bits.length) return limit;
+			w = bits[word];
+		}
+		return Math.min(limit, (word << 6) + Long.numberOfTrailingZeros(w));
+	}
+
+	/**
+	* Find the last explicit track at or before the given track.
+	* Returns -1 if there is no such track.
+	*/
+
+	public int prevExplicit(int channel, int key, int track) {
+		if (track < 0) return -1;
+		final long[] bits = explicit[channel * KEYS_PER_CHANNEL + key];
+		int word = track >> 6;
+		long w = bits[word] & (-1L >>> (63 - (track & 63)));
+		while (w == 0) {
+			if (--word < 0) return -1;
+			w = bits[word];
+		}
+		return (word << 6) + 63 - Long.numberOfLeadingZeros(w);
+	}
+
+	private static boolean getBit(long[] bits, int i) {
+		return (bits[i >> 6] & (1L << (i & 63))) != 0;
+	}
+
+	private static void setBit(long[] bits, int i, boolean value) {
+		if (value) {
+			bits[i >> 6] |= (1L << (i & 63));
+		} else {
+			bits[i >> 6] &= ~(1L << (i & 63));
+		}
+	}
+
+	public float getFloat(int channel, int track, int key) {
+		return floats[channel * KEYS_PER_CHANNEL + key][track];
+	}
+
+	public Waveform getWaveform(int channel, int track, int key) {
+		return waveforms[channel * KEYS_PER_CHANNEL + key][track];
+	}
+
+	public Interval getInterval(int channel, int track) {
+		return intervals[channel][track];
+	}
+
+	/**
+	* Boxed access for the table model and the editors.
+	*/
+
+	public Object getValue(int channel, int track, int key) {
+		if (key == KEY_INTERVAL) return intervals[channel][track];
+		if (isWaveform(key)) return getWaveform(channel, track, key);
+		return getFloat(channel, track, key);
+	}
+
+	/**
+	* Boxed access for the table model and the editors.
+	* Float values are clamped to the valid range of the parameter.
+	*/
+
+	public void setValue(int channel, int track, int key, Object value) {
+		final int row = channel * KEYS_PER_CHANNEL + key;
+		if (key == KEY_INTERVAL) {
+			intervals[channel][track] = (Interval)value;
+		} else if (isWaveform(key)) {
+			waveforms[row][track] = (Waveform)value;
+		} else {
+			floats[row][track] = Math.max(MINIMUM[key], Math.min(MAXIMUM[key], ((Float)value).floatValue()));
+		}
+	}
+}
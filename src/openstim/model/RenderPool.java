@@ -0,0 +1,60 @@
+package openstim.model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Shared worker threads for rendering independent parts of a session
+* (channels of a block, segments of an export) in parallel.
+* The threads are daemons, so an idle pool never keeps the application alive.
+* The pool has a fixed number of threads and does not steal work, so a task
+* must never wait for other pool work: code which may run on a pool thread
+* checks {@link #isWorkerThread()} and does the work itself instead.
+*/
+
+public final class RenderPool {
+	private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService executor = null;
+
+	private RenderPool() {
+	}
+
+	/**
+	* Number of parts worth rendering at the same time.
+	* A value of 1 means that parts should be rendered on the calling thread.
+	*/
+
+	public static int getParallelism() {
+		return PARALLELISM;
+	}
+
+	/**
+	* Whether the calling thread belongs to the pool.
+	*/
+
+	public static boolean isWorkerThread() {
+		return (Thread.currentThread() instanceof Worker);
+	}
+
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Worker(r, "openstim-render-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	private static final class Worker extends Thread {
+		public Worker(Runnable r, String name) {
+			super(r, name);
+		}
+	}
+}
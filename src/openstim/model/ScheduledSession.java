@@ -9,13 +9,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 import javax.swing.ProgressMonitor;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
@@ -23,49 +28,96 @@ import javax.xml.parsers.*;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.*;
 import javax.xml.transform.stream.*;
+import openstim.audio.PCMPacker;
 import openstim.table.TableModelExt;
 import org.w3c.dom.*;
 
 public class ScheduledSession extends AbstractTableModel implements Session,TableModelExt {
-	private static final TableCellRenderer defaultRendererExpl = new DefaultRenderer(true);
-	private static final TableCellRenderer defaultRendererImpl = new DefaultRenderer(false);
-	private static final TableCellRenderer intervalRendererExpl = new IntervalRenderer(true);
-	private static final TableCellRenderer intervalRendererImpl = new IntervalRenderer(false);
-	private static final TableCellRenderer waveformRendererExpl = new WaveformRenderer(true);
-	private static final TableCellRenderer waveformRendererImpl = new WaveformRenderer(false);
-	private static final TableCellEditor floatEditor = new FloatEditor();
-	private static final TableCellEditor intervalEditor = new IntervalEditor();
-	private static final TableCellEditor waveformEditor = new WaveformEditor();
-
 	private static final int FIXED_ROWS = 2;
-	private static final int KEYS_PER_CHANNEL = 13;
-	private static final int MAX_CHANNELS = 2;
+	private static final int KEYS_PER_CHANNEL = ParameterTable.KEYS_PER_CHANNEL;
+	private static final int MAX_CHANNELS = 8;
 	private static final int INIT_TRACKS = 8;
+	private static final int BLOCK_SIZE = 512;
+	private static final int DEFAULT_CONTROL_RATE = 64;
+	private static final int CHECKPOINT_SECONDS = 5;
+
+	/**
+	* Cell renderers and editors, created on first use only,
+	* so that sessions can be loaded and rendered without a display.
+	*/
+
+	private static final class Cells {
+		static final TableCellRenderer defaultRendererExpl = new DefaultRenderer(true);
+		static final TableCellRenderer defaultRendererImpl = new DefaultRenderer(false);
+		static final TableCellRenderer intervalRendererExpl = new IntervalRenderer(true);
+		static final TableCellRenderer intervalRendererImpl = new IntervalRenderer(false);
+		static final TableCellRenderer waveformRendererExpl = new WaveformRenderer(true);
+		static final TableCellRenderer waveformRendererImpl = new WaveformRenderer(false);
+		static final TableCellEditor floatEditor = new FloatEditor();
+		static final TableCellEditor intervalEditor = new IntervalEditor();
+		static final TableCellEditor waveformEditor = new WaveformEditor();
+	}
 
 	private int numChannels;
 	private int numTracks;
 	private float[] duration;
 	private float[] timeIndices;
 	private String[] description;
-	private Values[] values;
+	private ParameterTable params;
+	private int controlRate;
+	private WavetableOscillator.Interpolation interpolation;
+	private int revision = 0;
+
+	// what streams render, replaced as a whole after every edit
+	private volatile Snapshot snapshot;
 
 	public ScheduledSession() {
+		controlRate = DEFAULT_CONTROL_RATE;
+		interpolation = WavetableOscillator.Interpolation.LINEAR;
 		numChannels = 2;
 		numTracks = 2;
 		duration = new float[INIT_TRACKS];
 		description = new String[INIT_TRACKS];
-		values = new Values[INIT_TRACKS * MAX_CHANNELS];
+		params = new ParameterTable(MAX_CHANNELS, INIT_TRACKS);
 
 		for (int i = 0; i < numTracks; i++) {
 			duration[i] = 60.0f;
-		}
-
-		for (int i = 0; i < numTracks * MAX_CHANNELS; i++) {
-			values[i] = new Values(i < MAX_CHANNELS);
+			params.initTrack(i, i == 0);
 		}
 
 		updateTimeIndices();
 		updateInterpolatedValues();
+		publish();
+	}
+
+	/**
+	* Immutable copy of everything a stream reads while rendering.
+	* The table is edited in place on the event dispatch thread, streams
+	* on other threads only ever see a complete snapshot of it.
+	*/
+
+	private static final class Snapshot {
+		private final int revision;
+		private final int numChannels;
+		private final int numTracks;
+		private final float[] timeIndices;
+		private final ParameterTable params;
+
+		public Snapshot(ScheduledSession session) {
+			revision = session.revision;
+			numChannels = session.numChannels;
+			numTracks = session.numTracks;
+			timeIndices = Arrays.copyOf(session.timeIndices, numTracks);
+			params = new ParameterTable(session.params, numTracks);
+		}
+	}
+
+	/**
+	* Make the current state visible to the streams, they switch to it at their next block.
+	*/
+
+	private void publish() {
+		snapshot = new Snapshot(this);
 	}
 
 	public void insertTrack(int index) {
@@ -82,25 +134,20 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 				description = temp;
 			}
 
-			if (values.length == numTracks * MAX_CHANNELS) {
-				Values[] temp = new Values[values.length * 2];
-				System.arraycopy(values, 0, temp, 0, values.length);
-				values = temp;
-			}
-
 			System.arraycopy(duration, index+1, duration, index+2, numTracks-index-1);
 			duration[index+1] = 60.0f;
 
 			System.arraycopy(description, index+1, description, index+2, numTracks-index-1);
 			description[index+1] = null;
 
-			final int idx = (index+1) * MAX_CHANNELS;
-			System.arraycopy(values, idx, values, idx+MAX_CHANNELS, (numTracks-index-1)*MAX_CHANNELS);
-			for (int i = 0; i < MAX_CHANNELS; i++) values[idx+i] = new Values(false);
+			params.insert(index+1, numTracks);
+			params.initTrack(index+1, false);
 
+			revision++;
 			numTracks++;
 			updateTimeIndices();
 			updateInterpolatedValues();
+			publish();
 			fireTableStructureChanged();
 		}
 	}
@@ -109,30 +156,112 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 		if (index > 0 && index < numTracks && numTracks > 2) {
 			System.arraycopy(duration, index+1, duration, index, numTracks-index-1);
 			System.arraycopy(description, index+1, description, index, numTracks-index-1);
-			System.arraycopy(values, (index+1)*MAX_CHANNELS, values, index*MAX_CHANNELS, (numTracks-index-1)*MAX_CHANNELS);
+			params.remove(index, numTracks);
 
+			revision++;
 			numTracks--;
 			updateTimeIndices();
 			updateInterpolatedValues();
+			publish();
 			fireTableStructureChanged();
 		}
 	}
 
+	/**
+	* Replace the session with the one stored in the given file.
+	* The file is read completely before anything is changed, so a session
+	* which fails to load is left as it was.
+	*/
+
 	public void load(File file) throws IOException {
 		try {
 			DocumentBuilderFactory bFactory = DocumentBuilderFactory.newInstance();
 			DocumentBuilder builder = bFactory.newDocumentBuilder();
 
 			FileInputStream istream = new FileInputStream(file);
-			Document doc = builder.parse(istream);
+			Document doc;
+			try {
+				doc = builder.parse(istream);
+			} finally {
+				istream.close();
+			}
 			doc.getDocumentElement().normalize();
 
 			Element root = doc.getDocumentElement();
-			System.out.println(root.getNodeName() + " " + root.getAttribute("version"));
+			if (!root.getNodeName().equals("openstim-session")) {
+				throw new IOException("Not an OpenStim session file.");
+			}
+			if (!root.getAttribute("version").equals("1")) {
+				throw new IOException(String.format("Unsupported session file version '%s'.", root.getAttribute("version")));
+			}
+
+			final Vector<Element> channelsXML = getChildren(getChild(root, "channels"), "channel");
+			final Vector<Element> tracksXML = getChildren(getChild(root, "tracks"), "track");
+			final int channels = channelsXML.size();
+			final int tracks = tracksXML.size();
+			if (channels < 1 || channels > MAX_CHANNELS) throw new IOException(String.format("Invalid number of channels: %d.", channels));
+			if (tracks < 2) throw new IOException(String.format("Invalid number of tracks: %d.", tracks));
+
+			final int capacity = Math.max(INIT_TRACKS, tracks);
+			final float[] newDuration = new float[capacity];
+			final String[] newDescription = new String[capacity];
+			final ParameterTable newParams = new ParameterTable(MAX_CHANNELS, capacity);
+
+			for (int track = 0; track < tracks; track++) {
+				final Element trackXML = tracksXML.get(track);
+				newParams.initTrack(track, track == 0);
+				newDuration[track] = 60.0f;
+				if (track > 0) {
+					newDuration[track] = Math.max(0.0f, Float.parseFloat(trackXML.getAttribute("duration")));
+					final String s = trackXML.getAttribute("description");
+					newDescription[track] = (s.isEmpty() ? null : s);
+				}
+
+				final Vector<Element> trackChannels = getChildren(trackXML, "channel");
+				for (int channel = 0; channel < trackChannels.size() && channel < channels; channel++) {
+					final Element channelXML = trackChannels.get(channel);
+					final Element intervalXML = getChild(channelXML, "interval");
+					if (intervalXML != null) {
+						newParams.setValue(channel, track, ParameterTable.KEY_INTERVAL, Interval.fromXML(intervalXML));
+						newParams.setExplicit(channel, track, ParameterTable.KEY_INTERVAL, true);
+					}
+					for (int group = 0; group < GROUP_NAMES.length; group++) {
+						final Element groupXML = getChild(channelXML, GROUP_NAMES[group]);
+						if (groupXML == null) continue;
+						final int key = ParameterTable.KEY_BASE_WAVE + 3 * group;
+						final Element waveXML = getChild(groupXML, "waveform");
+						final Element freqXML = getChild(groupXML, "frequency");
+						final Element amplXML = getChild(groupXML, "amplitude");
+						if (waveXML != null) {
+							newParams.setValue(channel, track, key, Waveform.fromXML(waveXML));
+							newParams.setExplicit(channel, track, key, true);
+						}
+						if (freqXML != null) {
+							newParams.setValue(channel, track, key + 1, xml2Float(freqXML));
+							newParams.setExplicit(channel, track, key + 1, true);
+						}
+						if (amplXML != null) {
+							newParams.setValue(channel, track, key + 2, xml2Float(amplXML));
+							newParams.setExplicit(channel, track, key + 2, true);
+						}
+					}
+				}
+			}
+
+			numChannels = channels;
+			numTracks = tracks;
+			duration = newDuration;
+			description = newDescription;
+			params = newParams;
+			revision++;
+			updateTimeIndices();
+			updateInterpolatedValues();
+			publish();
+			fireTableStructureChanged();
 		} catch (IOException e) {
 			throw e;
 		} catch (Exception e) {
-			throw new IOException("Internal error.", e);
+			throw new IOException("Invalid session file.", e);
 		}
 	}
 
@@ -181,37 +310,20 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 
 				for (int channel = 0; channel < numChannels; channel++) {
 					Element channelXML = doc.createElement("channel");
-					Values v = values[track*MAX_CHANNELS+channel];
-					if (v.intervalExplicit) {
-						channelXML.appendChild(v.interval.toXML(doc));
-					}
-					if (v.baseWaveExplicit || v.baseFreqExplicit || v.baseAmplExplicit) {
-						Element baseXML = doc.createElement("base-wave");
-						if (v.baseWaveExplicit) baseXML.appendChild(v.baseWave.toXML(doc));
-						if (v.baseFreqExplicit) baseXML.appendChild(float2XML(doc, "frequency", v.baseFreq));
-						if (v.baseAmplExplicit) baseXML.appendChild(float2XML(doc, "amplitude", v.baseAmpl));
-						channelXML.appendChild(baseXML);
-					}
-					if (v.fmodWaveExplicit || v.fmodFreqExplicit || v.fmodAmplExplicit) {
-						Element fmodXML = doc.createElement("frequency-mod");
-						if (v.fmodWaveExplicit) fmodXML.appendChild(v.fmodWave.toXML(doc));
-						if (v.fmodFreqExplicit) fmodXML.appendChild(float2XML(doc, "frequency", v.fmodFreq));
-						if (v.fmodAmplExplicit) fmodXML.appendChild(float2XML(doc, "amplitude", v.fmodAmpl));
-						channelXML.appendChild(fmodXML);
-					}
-					if (v.amod1WaveExplicit || v.amod1FreqExplicit || v.amod1AmplExplicit) {
-						Element amod1XML = doc.createElement("amplitude-mod1");
-						if (v.amod1WaveExplicit) amod1XML.appendChild(v.amod1Wave.toXML(doc));
-						if (v.amod1FreqExplicit) amod1XML.appendChild(float2XML(doc, "frequency", v.amod1Freq));
-						if (v.amod1AmplExplicit) amod1XML.appendChild(float2XML(doc, "amplitude", v.amod1Ampl));
-						channelXML.appendChild(amod1XML);
+					if (isExplicit(channel, track, ParameterTable.KEY_INTERVAL)) {
+						channelXML.appendChild(params.getInterval(channel, track).toXML(doc));
 					}
-					if (v.amod2WaveExplicit || v.amod2FreqExplicit || v.amod2AmplExplicit) {
-						Element amod2XML = doc.createElement("amplitude-mod2");
-						if (v.amod2WaveExplicit) amod2XML.appendChild(v.amod2Wave.toXML(doc));
-						if (v.amod2FreqExplicit) amod2XML.appendChild(float2XML(doc, "frequency", v.amod2Freq));
-						if (v.amod2AmplExplicit) amod2XML.appendChild(float2XML(doc, "amplitude", v.amod2Ampl));
-						channelXML.appendChild(amod2XML);
+					for (int group = 0; group < GROUP_NAMES.length; group++) {
+						final int key = ParameterTable.KEY_BASE_WAVE + 3 * group;
+						final boolean waveExplicit = isExplicit(channel, track, key);
+						final boolean freqExplicit = isExplicit(channel, track, key + 1);
+						final boolean amplExplicit = isExplicit(channel, track, key + 2);
+						if (!waveExplicit && !freqExplicit && !amplExplicit) continue;
+						Element groupXML = doc.createElement(GROUP_NAMES[group]);
+						if (waveExplicit) groupXML.appendChild(params.getWaveform(channel, track, key).toXML(doc));
+						if (freqExplicit) groupXML.appendChild(float2XML(doc, "frequency", params.getFloat(channel, track, key + 1)));
+						if (amplExplicit) groupXML.appendChild(float2XML(doc, "amplitude", params.getFloat(channel, track, key + 2)));
+						channelXML.appendChild(groupXML);
 					}
 					trackXML.appendChild(channelXML);
 				}
@@ -240,28 +352,55 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 		}
 	}
 
+	private static final String[] GROUP_NAMES = { "base-wave", "frequency-mod", "amplitude-mod1", "amplitude-mod2" };
+
 	private Element float2XML(Document doc, String name, float value) {
 		Element result = doc.createElement(name);
 		result.setAttribute("value", Float.toString(value));
 		return result;
 	}
 
+	private static Float xml2Float(Element xml) {
+		return Float.valueOf(xml.getAttribute("value"));
+	}
+
+	/**
+	* First child element with the given name, or null.
+	*/
+
+	private static Element getChild(Element parent, String name) {
+		if (parent == null) return null;
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && node.getNodeName().equals(name)) return (Element)node;
+		}
+		return null;
+	}
+
+	private static Vector<Element> getChildren(Element parent, String name) {
+		final Vector<Element> result = new Vector<Element>();
+		if (parent == null) return result;
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && node.getNodeName().equals(name)) result.add((Element)node);
+		}
+		return result;
+	}
+
 	private boolean isExplicit(int channel, int track, int key) {
 		if (track == 0) return true;
-		return values[track*MAX_CHANNELS+channel].isExplicit(key);
+		return params.isExplicit(channel, track, key);
 	}
 
 	private void setExplicit(int channel, int track, int key, boolean value) {
 		if (track == 0) value = true;
-		values[track*MAX_CHANNELS+channel].setExplicit(key, value);
+		params.setExplicit(channel, track, key, value);
 	}
 
 	private Object getValue(int channel, int track, int key) {
-		return values[track*MAX_CHANNELS+channel].getValue(key);
+		return params.getValue(channel, track, key);
 	}
 
 	private void setValue(int channel, int track, int key, Object value) {
-		values[track*MAX_CHANNELS+channel].setValue(key, value);
+		params.setValue(channel, track, key, value);
 	}
 
 	public int getColumnCount() {
@@ -316,27 +455,27 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 		switch (channel) {
 			case 0  : return "#1\nLeft";
 			case 1  : return "#2\nRight";
-			default : return String.format("#%i", channel);
+			default : return String.format("#%d", channel + 1);
 		}
 	}
 
 	public TableCellRenderer getRendererAt(int row, int col) {
-		if (row < FIXED_ROWS) return defaultRendererExpl;
+		if (row < FIXED_ROWS) return Cells.defaultRendererExpl;
 		final int channel = (row - FIXED_ROWS) / KEYS_PER_CHANNEL;
 		final int key = (row - FIXED_ROWS) % KEYS_PER_CHANNEL;
 		final boolean explicit = isExplicit(channel, col, key);
-		if (key == 0) return (explicit ? intervalRendererExpl : intervalRendererImpl);
-		if (key % 3 == 1) return (explicit ? waveformRendererExpl : waveformRendererImpl);
-		return (explicit ? defaultRendererExpl : defaultRendererImpl);
+		if (key == 0) return (explicit ? Cells.intervalRendererExpl : Cells.intervalRendererImpl);
+		if (key % 3 == 1) return (explicit ? Cells.waveformRendererExpl : Cells.waveformRendererImpl);
+		return (explicit ? Cells.defaultRendererExpl : Cells.defaultRendererImpl);
 	}
 
 	public TableCellEditor getEditorAt(int row, int col) {
-		if (row == 0) return floatEditor;
+		if (row == 0) return Cells.floatEditor;
 		if (row < FIXED_ROWS) return null;
 		final int key = (row - FIXED_ROWS) % KEYS_PER_CHANNEL;
-		if (key == 0) return intervalEditor;
-		if (key % 3 == 1) return waveformEditor;
-		return floatEditor;
+		if (key == 0) return Cells.intervalEditor;
+		if (key % 3 == 1) return Cells.waveformEditor;
+		return Cells.floatEditor;
 	}
 
 	public String getFormattedValueAt(int row, int col) {
@@ -344,16 +483,17 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 		if (row < FIXED_ROWS) return null;
 		final int channel = (row - FIXED_ROWS) / KEYS_PER_CHANNEL;
 		final int key = (row - FIXED_ROWS) % KEYS_PER_CHANNEL;
-		final Values v = values[col*MAX_CHANNELS+channel];
+		if (!ParameterTable.isFloat(key)) return null;
+		final float v = params.getFloat(channel, col, key);
 		switch (key) {
-			case 2: return String.format("%.1f Hz", v.baseFreq);
-			case 3: return String.format("%.1f %%", v.baseAmpl);
-			case 5: return String.format("%.2f Hz", v.fmodFreq);
-			case 6: return String.format("%.1f Hz", v.fmodAmpl);
-			case 8: return String.format("%.2f Hz", v.amod1Freq);
-			case 9: return String.format("%.1f %%", v.amod1Ampl);
-			case 11: return String.format("%.2f Hz", v.amod2Freq);
-			case 12: return String.format("%.1f %%", v.amod2Ampl);
+			case 2: return String.format("%.1f Hz", v);
+			case 3: return String.format("%.1f %%", v);
+			case 5: return String.format("%.2f Hz", v);
+			case 6: return String.format("%.1f Hz", v);
+			case 8: return String.format("%.2f Hz", v);
+			case 9: return String.format("%.1f %%", v);
+			case 11: return String.format("%.2f Hz", v);
+			case 12: return String.format("%.1f %%", v);
 			default: return null;
 		}
 	}
@@ -399,8 +539,10 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 			if (value == null) return;
 			float v = ((Float)value).floatValue();
 			duration[col] = Math.max(0.0f, v);
+			revision++;
 			updateTimeIndices();
 			updateInterpolatedValues();
+			publish();
 			fireTableCellUpdated(row, col);
 			//fireTableHeaderUpdated();
 			fireTableStructureChanged();
@@ -420,8 +562,9 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 		final int key = (row - FIXED_ROWS) % KEYS_PER_CHANNEL;
 		setExplicit(channel, col, key, value != null);
 		if (value != null) setValue(channel, col, key, value);
-		fireTableCellUpdated(row, col);
-		updateInterpolatedValues();
+		revision++;
+		updateInterpolatedValues(channel, key, col);
+		publish();
 	}
 
 	/**
@@ -442,212 +585,799 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 	/**
 	* Update all non-explicit values by interpolating them their
 	* respective explit left and right neighbours.
+	* No events are fired, callers announce a structure change afterwards.
 	*/
 
 	private void updateInterpolatedValues() {
-		final int[] next = new int[numTracks + 1];
+		for (int channel = 0; channel < numChannels; channel++) {
+			for (int key = 0; key < KEYS_PER_CHANNEL; key++) {
+				// walk from one explicit track to the next,
+				// the very first track is always explicit by convention
+				for (int last = 0; last < numTracks - 1; ) {
+					final int next = params.nextExplicit(channel, key, last + 1, numTracks);
+					interpolate(channel, key, last, next);
+					last = next;
+				}
+			}
+		}
+	}
 
-		for (int channel = 0, row = 0; channel < numChannels; channel++) {
-			for (int key = 0; key < KEYS_PER_CHANNEL; key++, row++) {
-				// for every track determine the next explicit track on the right
+	/**
+	* Update the non-explicit values of one parameter after the given track
+	* has been edited. Only the tracks between the explicit neighbours of the
+	* edited track can change, they are reported as a single row update.
+	*/
 
-				next[numTracks] = -1;
-				for (int track = numTracks-1; track >= 0; track--) {
-					next[track] = isExplicit(channel, track, key) ? track : next[track+1];
-				}
+	private void updateInterpolatedValues(int channel, int key, int track) {
+		final int left = Math.max(0, params.prevExplicit(channel, key, track - 1));
+		final int right = params.nextExplicit(channel, key, track + 1, numTracks);
 
-				// now interpolate all non-explicit tracks, we continously update
-				// last seen explicit track which is used for the left side of the
-				// interpolation, the very first track is always explicit by convention
+		for (int last = left; last < right; ) {
+			final int next = params.nextExplicit(channel, key, last + 1, numTracks);
+			interpolate(channel, key, last, next);
+			last = next;
+		}
 
-				for (int track = 1, last = 0; track < numTracks; track++) {
-					if (isExplicit(channel, track, key)) {
-						last = track;
-						continue;
-					}
+		final int row = FIXED_ROWS + channel * KEYS_PER_CHANNEL + key;
+		fireTableChanged(new TableModelEvent(this, row, row, TableModelEvent.ALL_COLUMNS));
+	}
 
-					if (next[track] < 0) {
-						setValue(channel, track, key, getValue(channel, last, key));
-						setExplicit(channel, track, key, false);
-						continue;
-					}
+	/**
+	* Interpolate the non-explicit tracks between two explicit tracks.
+	* If there is no explicit track on the right (right == numTracks),
+	* the value of the left track is continued.
+	*/
 
-					final float s1 = (timeIndices[next[track]] - timeIndices[track]) / (timeIndices[next[track]] - timeIndices[last]);
-					final float s2 = (timeIndices[track] - timeIndices[last]) / (timeIndices[next[track]] - timeIndices[last]);
-					final Object value = getValue(channel, track, key);
-
-					if (value instanceof Float) {
-						float a = ((Float)getValue(channel, last, key)).floatValue();
-						float b = ((Float)getValue(channel, next[track], key)).floatValue();
-						setValue(channel, track, key, s1 * a + s2 * b);
-					} else if (value instanceof Interval) {
-						Interval a = (Interval)getValue(channel, last, key);
-						Interval b = (Interval)getValue(channel, next[track], key);
-						setValue(channel, track, key, new Interval(s1, a, s2, b));
-					} else if (value instanceof Waveform) {
-						Waveform a = (Waveform)getValue(channel, last, key);
-						Waveform b = (Waveform)getValue(channel, next[track], key);
-						setValue(channel, track, key, new Waveform(s1, a, s2, b));
-					}
+	private void interpolate(int channel, int key, int left, int right) {
+		final int row = channel * KEYS_PER_CHANNEL + key;
 
-					fireTableCellUpdated(row, track);
-				}
+		if (right == numTracks) {
+			for (int track = left + 1; track < right; track++) {
+				params.setValue(channel, track, key, params.getValue(channel, left, key));
+			}
+			return;
+		}
+
+		final float span = timeIndices[right] - timeIndices[left];
+		for (int track = left + 1; track < right; track++) {
+			final float s1 = (span > 0.0f ? (timeIndices[right] - timeIndices[track]) / span : 1.0f);
+			final float s2 = (span > 0.0f ? (timeIndices[track] - timeIndices[left]) / span : 0.0f);
+
+			if (ParameterTable.isFloat(key)) {
+				final float[] v = params.floats[row];
+				v[track] = s1 * v[left] + s2 * v[right];
+			} else if (ParameterTable.isWaveform(key)) {
+				final Waveform[] v = params.waveforms[row];
+				v[track] = new Waveform(s1, v[left], s2, v[right]);
+			} else {
+				final Interval[] v = params.intervals[channel];
+				v[track] = new Interval(s1, v[left], s2, v[right]);
 			}
 		}
 	}
 
+	/**
+	* Index of the track played at the given time in seconds,
+	* which is the track the session is moving towards.
+	*/
+
+	public int getTrackAt(float time) {
+		int track = 1;
+		while (track < numTracks - 1 && timeIndices[track] <= time) track++;
+		return track;
+	}
+
+	/**
+	* Time in seconds at which the session reaches the given track.
+	*/
+
+	public float getTrackTime(int track) {
+		return timeIndices[track];
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	* Change the number of channels, between 1 and MAX_CHANNELS.
+	* Removed channels keep their values until they are shown again.
+	*/
+
+	public void setNumChannels(int value) {
+		value = Math.max(1, Math.min(MAX_CHANNELS, value));
+		if (value != numChannels) {
+			numChannels = value;
+			revision++;
+			updateInterpolatedValues();
+			publish();
+			fireTableStructureChanged();
+		}
+	}
+
+	/**
+	* Counter of all changes which affect the rendered audio.
+	* Streams use it to detect that their checkpoints became invalid.
+	*/
+
+	public int getRevision() {
+		return snapshot.revision;
+	}
+
+	/**
+	* Number of frames between two evaluations of the track parameters.
+	* Streams ramp the parameters linearly from one control point to the next.
+	*/
+
+	public int getControlRate() {
+		return controlRate;
+	}
+
+	public void setControlRate(int frames) {
+		controlRate = Math.max(1, Math.min(BLOCK_SIZE, frames));
+	}
+
+	/**
+	* Table interpolation used by the oscillators of new streams.
+	*/
+
+	public WavetableOscillator.Interpolation getInterpolation() {
+		return interpolation;
+	}
+
+	public void setInterpolation(WavetableOscillator.Interpolation value) {
+		interpolation = value;
+	}
+
 	public SessionStream getStream(int sampleRate, int sampleSize, int channels, ProgressMonitor monitor) {
-		return new Stream(sampleRate, sampleSize, channels, monitor);
+		return new Stream(new AudioFormat(sampleRate, sampleSize, channels, true, false), monitor);
+	}
+
+	public SessionStream getStream(AudioFormat format, ProgressMonitor monitor) {
+		return new Stream(format, monitor);
+	}
+
+	// indices of the parameters evaluated at control rate
+	private static final int BASE_FREQ  = 0;
+	private static final int BASE_AMPL  = 1;
+	private static final int FMOD_FREQ  = 2;
+	private static final int FMOD_AMPL  = 3;
+	private static final int AMOD1_FREQ = 4;
+	private static final int AMOD1_AMPL = 5;
+	private static final int AMOD2_FREQ = 6;
+	private static final int AMOD2_AMPL = 7;
+	private static final int MORPH      = 8;
+	private static final int NUM_PARAMS = 9;
+
+	// table keys of the parameters evaluated at control rate
+	private static final int[] CONTROL_KEYS = {
+		ParameterTable.KEY_BASE_FREQ, ParameterTable.KEY_BASE_AMPL,
+		ParameterTable.KEY_FMOD_FREQ, ParameterTable.KEY_FMOD_AMPL,
+		ParameterTable.KEY_AMOD1_FREQ, ParameterTable.KEY_AMOD1_AMPL,
+		ParameterTable.KEY_AMOD2_FREQ, ParameterTable.KEY_AMOD2_AMPL
+	};
+
+	/**
+	* Snapshot of a stream, see Stream.getState.
+	*/
+
+	private static final class StreamState implements SessionStream.State {
+		private long position;
+		private long trackStart;
+		private long trackEnd;
+		private int trackIndex;
+		private boolean finished;
+		private int blockOffset;
+		private int blockLength;
+		private float[][] block;
+		private final int[] phases = new int[4 * MAX_CHANNELS];
+		private final int[] envSegment = new int[MAX_CHANNELS];
+		private final long[] envPosition = new long[MAX_CHANNELS];
+		private Snapshot snapshot;
+
+		public long getFramePosition() {
+			return position - blockLength + blockOffset;
+		}
 	}
 
 	private class Stream extends SessionStream {
-		private ProgressMonitor monitor;
-		private float stepSize;
-		private int outChannels;
-		private boolean bit16;
+		private final ProgressMonitor monitor;
+		private final int controlRate;
+		private final WavetableOscillator.Interpolation interpolation;
+		private final float sampleRate;
+		private final int outChannels;
+		private final PCMPacker packer;
+		private final Voice[] voices = new Voice[MAX_CHANNELS];
+		private final float[][] block;
+		private Snapshot snap;
+		private int blockOffset = 0;
+		private int blockLength = 0;
+		private long position = 0;
+		private long trackStart = 0;
+		private long trackEnd = 0;
 		private int trackIndex = 1;
-		private float trackOffset = 0.0f;
 		private boolean finished = false;
-		private final Interval[] interval = new Interval[MAX_CHANNELS];
-		private final Waveform[] baseWave = new Waveform[MAX_CHANNELS];
-		private final Waveform[] fmodWave = new Waveform[MAX_CHANNELS];
-		private final Waveform[] amod1Wave = new Waveform[MAX_CHANNELS];
-		private final Waveform[] amod2Wave = new Waveform[MAX_CHANNELS];
-
-		public Stream(int sampleRate, int sampleSize, int channels, ProgressMonitor monitor) {
-			super(sampleRate, sampleSize, channels);
-			rewind();
-			stepSize = 1.0f / (float)sampleRate;
-			outChannels = channels;
-			bit16 = (sampleSize == 16);
+
+		// states at block starts, recorded whenever rendering passes the last one by
+		// at least the checkpoint interval, they stay valid until the session changes
+		private final long checkpointInterval;
+		private long[] checkpointFrames = new long[16];
+		private StreamState[] checkpoints = new StreamState[16];
+		private int numCheckpoints = 0;
+		private int checkpointRevision;
+
+		public Stream(AudioFormat format, ProgressMonitor monitor) {
+			super(format);
+			this.sampleRate = format.getSampleRate();
+			this.outChannels = format.getChannels();
+			this.packer = new PCMPacker(format);
 			this.monitor = monitor;
+			this.controlRate = ScheduledSession.this.controlRate;
+			this.interpolation = ScheduledSession.this.interpolation;
+			block = new float[outChannels][BLOCK_SIZE];
+			for (int i = 0; i < MAX_CHANNELS; i++) {
+				voices[i] = new Voice(i);
+			}
+			checkpointInterval = (long)CHECKPOINT_SECONDS * Math.round(sampleRate);
+			snap = snapshot;
+			checkpointRevision = snap.revision;
+			rewind();
 		}
 
 		public void rewind() {
-			trackIndex = 1;
-			trackOffset = 0.0f;
-			finished = false;
+			update();
 			for (int i = 0; i < MAX_CHANNELS; i++) {
-				interval[i] = new Interval();
-				baseWave[i] = new Waveform();
-				fmodWave[i] = new Waveform();
-				amod1Wave[i] = new Waveform();
-				amod2Wave[i] = new Waveform();
+				voices[i].reset();
 			}
+			trackIndex = 1;
+			trackStart = 0;
+			trackEnd = toFrame(snap.timeIndices[1]);
+			frameLength = toFrame(totalTime());
+			position = 0;
+			blockOffset = 0;
+			blockLength = 0;
+			finished = false;
 		}
 
 		public void seek(float t) {
-			rewind();
-			while (trackIndex <= numTracks && timeIndices[trackIndex - 1] <= t) {
-				trackIndex++;
+			seekFrame(toFrame(t));
+		}
+
+		/**
+		* Jump to a frame with the exact state of a continuous render.
+		* The stream continues from the last checkpoint before the frame,
+		* or from its current position if that is closer.
+		*/
+
+		private void seekFrame(long frame) {
+			frame = Math.max(0L, frame);
+			update();
+			if (frame < getFramePosition()) {
+				final int k = findCheckpoint(frame);
+				if (k >= 0) {
+					setState(checkpoints[k]);
+				} else {
+					rewind();
+				}
 			}
-			if (trackIndex > numTracks) {
-				finished = true;
-			} else {
-				finished = false;
-				trackOffset = t - timeIndices[trackIndex - 1];
+			advance(frame - getFramePosition());
+		}
+
+		/**
+		* Switch to the latest snapshot of the session. This only happens
+		* between blocks, so every block is rendered from one consistent
+		* state. The tracks may have moved, so the current one is looked
+		* up again, and the checkpoints of older revisions are dropped.
+		*/
+
+		private void update() {
+			final Snapshot latest = snapshot;
+			if (latest == snap) return;
+			snap = latest;
+
+			if (checkpointRevision != snap.revision) {
+				Arrays.fill(checkpoints, 0, numCheckpoints, null);
+				numCheckpoints = 0;
+				checkpointRevision = snap.revision;
 			}
+			frameLength = toFrame(totalTime());
+
+			int t = 1;
+			while (t < snap.numTracks - 1 && toFrame(snap.timeIndices[t]) <= position) t++;
+			trackIndex = t;
+			trackStart = toFrame(snap.timeIndices[t-1]);
+			trackEnd = toFrame(snap.timeIndices[t]);
+		}
+
+		/**
+		* Index of the last checkpoint at or before the frame, -1 if there is none.
+		*/
+
+		private int findCheckpoint(long frame) {
+			int k = Arrays.binarySearch(checkpointFrames, 0, numCheckpoints, frame);
+			return (k >= 0 ? k : -k - 2);
+		}
+
+		private void recordCheckpoint() {
+			if (numCheckpoints > 0 && position < checkpointFrames[numCheckpoints-1] + checkpointInterval) return;
+			if (checkpointRevision != snap.revision) return;
+			if (numCheckpoints == checkpoints.length) {
+				checkpointFrames = Arrays.copyOf(checkpointFrames, numCheckpoints * 2);
+				checkpoints = Arrays.copyOf(checkpoints, numCheckpoints * 2);
+			}
+			checkpointFrames[numCheckpoints] = position;
+			checkpoints[numCheckpoints] = capture();
+			numCheckpoints++;
+		}
+
+		private long toFrame(float t) {
+			return Math.round((double)t * sampleRate);
+		}
+
+		private void nextTrack() {
+			trackIndex++;
+			trackStart = trackEnd;
+			if (trackIndex < snap.numTracks) trackEnd = toFrame(snap.timeIndices[trackIndex]);
 		}
 
 		public float currentTime() {
-			return (finished ? totalTime() : timeIndices[trackIndex - 1] + trackOffset);
+			if (isFinished()) return totalTime();
+			return (float)((double)(position - blockLength + blockOffset) / sampleRate);
 		}
 
 		public float totalTime() {
-			return timeIndices[numTracks-1];
+			return snap.timeIndices[snap.numTracks-1];
 		}
 
 		public boolean isFinished() {
-			return finished;
+			return (finished && blockOffset >= blockLength);
+		}
+
+		public long getFramePosition() {
+			return position - blockLength + blockOffset;
+		}
+
+		public long[] getTrackFrames() {
+			final long[] frames = new long[snap.numTracks];
+			for (int i = 0; i < snap.numTracks; i++) {
+				frames[i] = toFrame(snap.timeIndices[i]);
+			}
+			return frames;
+		}
+
+		public State getState() {
+			return capture();
+		}
+
+		private StreamState capture() {
+			final StreamState state = new StreamState();
+			state.position = position;
+			state.trackStart = trackStart;
+			state.trackEnd = trackEnd;
+			state.trackIndex = trackIndex;
+			state.finished = finished;
+			state.blockOffset = blockOffset;
+			state.blockLength = blockLength;
+			state.snapshot = snap;
+			if (blockOffset < blockLength) {
+				state.block = new float[outChannels][];
+				for (int channel = 0; channel < outChannels; channel++) {
+					state.block[channel] = Arrays.copyOfRange(block[channel], blockOffset, blockLength);
+				}
+			}
+			for (int i = 0; i < MAX_CHANNELS; i++) {
+				voices[i].save(state, i);
+			}
+			return state;
+		}
+
+		public void setState(State value) {
+			if (!(value instanceof StreamState)) {
+				throw new IllegalArgumentException("State does not belong to this session");
+			}
+			final StreamState state = (StreamState)value;
+			position = state.position;
+			trackStart = state.trackStart;
+			trackEnd = state.trackEnd;
+			trackIndex = state.trackIndex;
+			finished = state.finished;
+			blockOffset = state.blockOffset;
+			blockLength = state.blockLength;
+			snap = state.snapshot;
+			if (state.block != null) {
+				for (int channel = 0; channel < outChannels; channel++) {
+					System.arraycopy(state.block[channel], 0, block[channel], blockOffset, blockLength - blockOffset);
+				}
+			}
+			for (int i = 0; i < MAX_CHANNELS; i++) {
+				voices[i].restore(state, i);
+			}
+		}
+
+		/**
+		* Skip frames, jumping over the part already covered by checkpoints.
+		*/
+
+		public long advance(long frames) {
+			if (frames <= 0) return 0;
+			final long start = getFramePosition();
+			final long target = (frames > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + frames);
+			update();
+			final int k = findCheckpoint(target);
+			if (k >= 0 && checkpointFrames[k] > start) {
+				setState(checkpoints[k]);
+				frames = target - checkpointFrames[k];
+			}
+
+			long done = 0;
+			while (done < frames) {
+				if (blockOffset >= blockLength && !renderBlock(frames - done)) break;
+				final int n = (int)Math.min(frames - done, blockLength - blockOffset);
+				blockOffset += n;
+				done += n;
+			}
+			return getFramePosition() - start;
 		}
 
 		public int read(byte[] buffer, int offset, int length) {
-			if (finished) {
+			if (isFinished()) {
 				// we already reached the end of session
 				return -1;
 			}
+			if (!updateMonitor()) return -1;
+
+			final int frames = length / frameSize;
+			int done = 0;
+			while (done < frames) {
+				if (blockOffset >= blockLength && !renderBlock(0)) break;
+				final int n = Math.min(frames - done, blockLength - blockOffset);
+				packer.pack(block, blockOffset, n, buffer, offset + done * frameSize);
+				blockOffset += n;
+				done += n;
+			}
+
+			return (done == 0 && frames > 0 ? -1 : done * frameSize);
+		}
+
+		public int read(float[][] buffer, int offset, int frames) {
+			if (isFinished()) return -1;
+			if (!updateMonitor()) return -1;
+
+			int done = 0;
+			while (done < frames) {
+				if (blockOffset >= blockLength && !renderBlock(0)) break;
+				final int n = Math.min(frames - done, blockLength - blockOffset);
+				for (int channel = 0; channel < outChannels; channel++) {
+					System.arraycopy(block[channel], blockOffset, buffer[channel], offset + done, n);
+				}
+				blockOffset += n;
+				done += n;
+			}
+
+			return (done == 0 && frames > 0 ? -1 : done);
+		}
+
+		/**
+		* Report the progress, returns false if the user canceled.
+		*/
+
+		private boolean updateMonitor() {
+			if (monitor == null) return true;
+			float current = currentTime();
+			float total = totalTime();
+			monitor.setProgress((int)Math.round(current / total * 100.0f));
+			monitor.setNote(String.format(
+				"Completed %d:%02d of %d:%02d...",
+				((int)current) / 60, ((int)current) % 60,
+				((int)total) / 60, ((int)total) % 60
+			));
+			return !monitor.isCanceled();
+		}
 
-			if (monitor != null) {
-				float current = currentTime();
-				float total = totalTime();
-				monitor.setProgress((int)Math.round(current / total * 100.0f));
-				monitor.setNote(String.format(
-					"Completed %d:%02d of %d:%02d...",
-					((int)current) / 60, ((int)current) % 60,
-					((int)total) / 60, ((int)total) % 60
-				));
-				if (monitor.isCanceled()) {
-					return -1;
+		/**
+		* Render the next block of frames for all channels.
+		* Blocks never cross a track boundary and always end on a control
+		* point, so they consist of whole control intervals. A block which
+		* fits into the given number of frames to skip only updates the
+		* synthesis state, its samples are not produced.
+		*/
+
+		private boolean renderBlock(long skip) {
+			update();
+			while (!finished && position >= trackEnd) {
+				nextTrack();
+				finished = (trackIndex >= snap.numTracks);
+			}
+			if (finished) return false;
+			recordCheckpoint();
+
+			final long end = (position + BLOCK_SIZE) / controlRate * controlRate;
+			final int n = (int)(Math.min(end, trackEnd) - position);
+
+			// channels without a voice stay silent, the others are independent
+			// and are rendered in parallel if there is more than one core, but
+			// not on a pool thread, which must not wait for the pool
+			final boolean skipping = (n <= skip);
+			final int active = Math.min(outChannels, snap.numChannels);
+			for (int channel = active; channel < outChannels && !skipping; channel++) {
+				Arrays.fill(block[channel], 0, n, 0.0f);
+			}
+			for (int channel = 0; channel < active; channel++) {
+				voices[channel].length = n;
+				voices[channel].skipping = skipping;
+			}
+			if (active > 1 && isParallel() && RenderPool.getParallelism() > 1 && !RenderPool.isWorkerThread()) {
+				renderParallel(active);
+			} else {
+				for (int channel = 0; channel < active; channel++) {
+					voices[channel].run();
 				}
 			}
 
-			for (int frame = 0; frame < length/frameSize; frame++) {
-				for (int channel = 0; channel < outChannels; channel++) {
-					if (channel > numChannels) {
-						buffer[offset++] = 0;
-						if (bit16) buffer[offset++] = 0;
-						continue;
+			position += n;
+			blockOffset = 0;
+			blockLength = n;
+			return true;
+		}
+
+		/**
+		* Render the voices on the shared pool, the calling thread takes the first one.
+		*/
+
+		private void renderParallel(int active) {
+			final ExecutorService executor = RenderPool.getExecutor();
+			final Future<?>[] pending = new Future<?>[active];
+			for (int channel = 1; channel < active; channel++) {
+				pending[channel] = executor.submit(voices[channel]);
+			}
+
+			RuntimeException error = null;
+			try {
+				voices[0].run();
+			} catch (RuntimeException e) {
+				error = e;
+			}
+
+			// always wait for all voices, they must not be used concurrently
+			boolean interrupted = false;
+			for (int channel = 1; channel < active; channel++) {
+				while (true) {
+					try {
+						pending[channel].get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						if (error == null) error = new IllegalStateException("Rendering channel " + channel + " failed", e.getCause());
+						break;
 					}
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (error != null) throw error;
+		}
 
-					float s2 = trackOffset / duration[trackIndex];
-					float s1 = 1.0f - s2;
+		/**
+		* Synthesis state of a single channel.
+		* The track parameters are evaluated at control rate only and ramped
+		* linearly in between, all synthesis stages work on whole blocks.
+		*/
+
+		private final class Voice implements Runnable {
+			private final int channel;
+			private int length;
+			private boolean skipping;
+			private boolean fmod, amod1, amod2;
+			private final float[][] param = new float[NUM_PARAMS][BLOCK_SIZE];
+			private float[] ctrl = new float[NUM_PARAMS];
+			private float[] next = new float[NUM_PARAMS];
+			private final float[] mod = new float[BLOCK_SIZE];
+			private final float[] env = new float[BLOCK_SIZE];
+			private final float[] mix = new float[BLOCK_SIZE];
+			private WaveMorph baseMorph;
+			private WaveMorph fmodMorph;
+			private WaveMorph amod1Morph;
+			private WaveMorph amod2Morph;
+			private final EnvelopeGenerator envelope = new EnvelopeGenerator(sampleRate);
+			private final WavetableOscillator baseOsc = new WavetableOscillator(sampleRate, interpolation);
+			private final WavetableOscillator fmodOsc = new WavetableOscillator(sampleRate, interpolation);
+			private final WavetableOscillator amod1Osc = new WavetableOscillator(sampleRate, interpolation);
+			private final WavetableOscillator amod2Osc = new WavetableOscillator(sampleRate, interpolation);
+
+			public Voice(int channel) {
+				this.channel = channel;
+			}
 
-					int idx = trackIndex * MAX_CHANNELS + channel;
-					Values v1 = values[idx - MAX_CHANNELS];
-					Values v2 = values[idx];
+			/**
+			* Render (or skip) the number of frames set before into the block of the channel.
+			*/
 
-					float freq = s1 * v1.baseFreq + s2 * v2.baseFreq;
-					float ampl = s1 * v1.baseAmpl + s2 * v2.baseAmpl;
+			public void run() {
+				if (skipping) {
+					skip(length);
+				} else {
+					render(block[channel], length);
+				}
+			}
 
-					float modFreq = s1 * v1.fmodFreq + s2 * v2.fmodFreq;
-					float modAmpl = s1 * v1.fmodAmpl + s2 * v2.fmodAmpl;
-					fmodWave[channel].interpolate(s1, v1.fmodWave, s2, v2.fmodWave);
-					//freq += modAmpl * fmodWave[channel].nextValue(modFreq, stepSize);
+			public void save(StreamState state, int i) {
+				state.phases[4*i] = baseOsc.getPhase();
+				state.phases[4*i+1] = fmodOsc.getPhase();
+				state.phases[4*i+2] = amod1Osc.getPhase();
+				state.phases[4*i+3] = amod2Osc.getPhase();
+				state.envSegment[i] = envelope.getSegment();
+				state.envPosition[i] = envelope.getPosition();
+			}
 
-					modFreq = s1 * v1.amod1Freq + s2 * v2.amod1Freq;
-					modAmpl = s1 * v1.amod1Ampl + s2 * v2.amod1Ampl;
-					amod1Wave[channel].interpolate(s1, v1.amod1Wave, s2, v2.amod2Wave);
-					//ampl += modAmpl * amod1Wave[channel].nextValue(modFreq, stepSize);
+			public void restore(StreamState state, int i) {
+				baseOsc.setPhase(state.phases[4*i]);
+				fmodOsc.setPhase(state.phases[4*i+1]);
+				amod1Osc.setPhase(state.phases[4*i+2]);
+				amod2Osc.setPhase(state.phases[4*i+3]);
+				envelope.setState(state.envSegment[i], state.envPosition[i]);
+			}
 
-					modFreq = s1 * v1.amod2Freq + s2 * v2.amod2Freq;
-					modAmpl = s1 * v1.amod2Ampl + s2 * v2.amod2Ampl;
-					amod2Wave[channel].interpolate(s1, v1.amod2Wave, s2, v2.amod2Wave);
-					//ampl += modAmpl * amod2Wave[channel].nextValue(modFreq, stepSize);
+			public void reset() {
+				baseOsc.reset();
+				fmodOsc.reset();
+				amod1Osc.reset();
+				amod2Osc.reset();
+				envelope.reset();
+			}
 
-					interval[channel].interpolate(s1, v1.interval, s2, v2.interval);
-					//ampl *= interval[channel].nextValue(stepSize);
+			public void render(float[] out, int n) {
+				final float[] freq = param[BASE_FREQ];
+				final float[] ampl = param[BASE_AMPL];
+				update(n, true);
 
-					ampl = (float)Math.max(-1.0, Math.min(1.0, 0.01 * ampl));
-					baseWave[channel].interpolate(s1, v1.baseWave, s2, v2.baseWave);
-					float value = 0.0f;//ampl * baseWave[channel].nextValue(freq, stepSize);
+				// frequency modulation
+				if (fmod) {
+					oscillate(mod, fmodOsc, fmodMorph, param[FMOD_FREQ], n);
+					modulate(freq, param[FMOD_AMPL], n);
+				}
 
-					if (bit16) {
-						int iv = Math.max(-32768, Math.min(32767, (int)Math.round(value * 32768.0f)));
-						buffer[offset++] = (byte)iv;
-						buffer[offset++] = (byte)(iv >> 8);
+				// volume, amplitude modulation and on/off envelope
+				if (amod1) {
+					oscillate(mod, amod1Osc, amod1Morph, param[AMOD1_FREQ], n);
+					modulate(ampl, param[AMOD1_AMPL], n);
+				}
+				if (amod2) {
+					oscillate(mod, amod2Osc, amod2Morph, param[AMOD2_FREQ], n);
+					modulate(ampl, param[AMOD2_AMPL], n);
+				}
+				for (int i = 0; i < n; i++) {
+					ampl[i] = Math.max(-1.0f, Math.min(1.0f, 0.01f * ampl[i] * env[i]));
+				}
+
+				// base wave
+				oscillate(out, baseOsc, baseMorph, freq, n);
+				for (int i = 0; i < n; i++) out[i] *= ampl[i];
+			}
+
+			/**
+			* Advance all oscillators and the envelope as render would.
+			* Only the frequency modulator has to be played, since it changes
+			* the phase increments of the base wave.
+			*/
+
+			public void skip(int n) {
+				update(n, false);
+				if (fmod) {
+					oscillate(mod, fmodOsc, fmodMorph, param[FMOD_FREQ], n);
+					modulate(param[BASE_FREQ], param[FMOD_AMPL], n);
+				}
+				if (amod1) amod1Osc.skip(param[AMOD1_FREQ], 0, n);
+				if (amod2) amod2Osc.skip(param[AMOD2_FREQ], 0, n);
+				baseOsc.skip(param[BASE_FREQ], 0, n);
+			}
+
+			/**
+			* Ramp the parameters, the envelope and the waveform morphs for the next n frames.
+			*/
+
+			private void update(int n, boolean render) {
+				fmod = false;
+				amod1 = false;
+				amod2 = false;
+
+				// evaluate the parameters at every control point and ramp in between,
+				// the on/off envelope follows the interval of the control point
+				final int row = channel * KEYS_PER_CHANNEL;
+				final int t = trackIndex;
+				evaluate(ctrl, position, row);
+				for (int i = 0; i < n; ) {
+					final long frame = position + i;
+					final int len = (int)Math.min(n - i, controlRate - frame % controlRate);
+					evaluate(next, frame + len, row);
+					for (int p = 0; p < NUM_PARAMS; p++) {
+						final float[] dst = param[p];
+						final float a = ctrl[p];
+						final float d = (next[p] - a) / len;
+						for (int j = 0; j < len; j++) dst[i+j] = a + j * d;
+					}
+					fmod |= (ctrl[FMOD_AMPL] != 0.0f || next[FMOD_AMPL] != 0.0f);
+					amod1 |= (ctrl[AMOD1_AMPL] != 0.0f || next[AMOD1_AMPL] != 0.0f);
+					amod2 |= (ctrl[AMOD2_AMPL] != 0.0f || next[AMOD2_AMPL] != 0.0f);
+
+					final float s = fraction(frame);
+					envelope.setInterval(1.0f - s, snap.params.intervals[channel][t-1], s, snap.params.intervals[channel][t]);
+					if (render) {
+						envelope.nextBlock(env, i, len);
 					} else {
-						buffer[offset++] = (byte)Math.max(-128, Math.min(127, (int)Math.round(value * 128.0f)));
+						envelope.skip(len);
 					}
+
+					final float[] temp = ctrl;
+					ctrl = next;
+					next = temp;
+					i += len;
 				}
 
-				trackOffset += stepSize;
+				// the waveforms morph from one track to the next
+				baseMorph = morph(baseMorph, snap.params.waveforms[row + ParameterTable.KEY_BASE_WAVE], t);
+				fmodMorph = morph(fmodMorph, snap.params.waveforms[row + ParameterTable.KEY_FMOD_WAVE], t);
+				amod1Morph = morph(amod1Morph, snap.params.waveforms[row + ParameterTable.KEY_AMOD1_WAVE], t);
+				amod2Morph = morph(amod2Morph, snap.params.waveforms[row + ParameterTable.KEY_AMOD2_WAVE], t);
+			}
 
-				if (trackOffset > duration[trackIndex]) {
-					trackOffset -= duration[trackIndex];
-					trackIndex++;
-					if (trackIndex >= numTracks) {
-						finished = true;
-						return (frame+1) * frameSize;
-					}
+			/**
+			* Get the morph from the previous to the given track,
+			* the last morph is reused as long as the waveforms did not change.
+			*/
+
+			private WaveMorph morph(WaveMorph last, Waveform[] waves, int track) {
+				if (last != null && last.matches(waves[track-1], waves[track])) return last;
+				return new WaveMorph(waves[track-1], waves[track]);
+			}
+
+			/**
+			* Play a morph at the current track position.
+			* The pair of neighbouring tables is chosen once per block,
+			* the crossfade between them follows the control points.
+			*/
+
+			private void oscillate(float[] out, WavetableOscillator osc, WaveMorph morph, float[] freq, int n) {
+				if (morph.size() == 1) {
+					osc.nextBlock(out, 0, n, morph.get(0), freq);
+					return;
 				}
+				final float[] pos = param[MORPH];
+				final int steps = morph.size() - 1;
+				final int k = Math.min(steps - 1, (int)(pos[0] * steps));
+				for (int i = 0; i < n; i++) {
+					mix[i] = Math.max(0.0f, Math.min(1.0f, pos[i] * steps - k));
+				}
+				osc.nextBlock(out, 0, n, morph.get(k), morph.get(k + 1), mix, freq);
 			}
 
-			return length - (length % frameSize);
+			/**
+			* Add the output of a modulator, scaled by its depth, to a parameter.
+			*/
+
+			private void modulate(float[] dst, float[] depth, int n) {
+				for (int i = 0; i < n; i++) dst[i] += depth[i] * mod[i];
+			}
 		}
 
-	}
+		/**
+		* Position of a frame within the current track (0.0 - 1.0).
+		*/
 
+		private float fraction(long frame) {
+			return (float)((double)(frame - trackStart) / (double)(trackEnd - trackStart));
+		}
 
+		private void evaluate(float[] ctrl, long frame, int row) {
+			final float s = fraction(frame);
+			final float[][] floats = snap.params.floats;
+			final int t = trackIndex;
+			for (int p = 0; p < MORPH; p++) {
+				final float[] v = floats[row + CONTROL_KEYS[p]];
+				ctrl[p] = v[t-1] + s * (v[t] - v[t-1]);
+			}
+			ctrl[MORPH] = s;
+		}
+	}
 
 	/*static public void main(String[] args) throws Exception {
 		DeterminedSession s = new DeterminedSession();
@@ -683,147 +1413,6 @@ public class ScheduledSession extends AbstractTableModel implements Session,Tabl
 		sdl.stop();
 		sdl.close();
 	}*/
-
-	private static class Values {
-		public Interval interval;
-		public boolean intervalExplicit;
-
-		public Waveform baseWave;
-		public float baseFreq;
-		public float baseAmpl;
-		public boolean baseWaveExplicit;
-		public boolean baseFreqExplicit;
-		public boolean baseAmplExplicit;
-
-		public Waveform fmodWave;
-		public float fmodFreq;
-		public float fmodAmpl;
-		public boolean fmodWaveExplicit;
-		public boolean fmodFreqExplicit;
-		public boolean fmodAmplExplicit;
-
-		public Waveform amod1Wave;
-		public float amod1Freq;
-		public float amod1Ampl;
-		public boolean amod1WaveExplicit;
-		public boolean amod1FreqExplicit;
-		public boolean amod1AmplExplicit;
-
-		public Waveform amod2Wave;
-		public float amod2Freq;
-		public float amod2Ampl;
-		public boolean amod2WaveExplicit;
-		public boolean amod2FreqExplicit;
-		public boolean amod2AmplExplicit;
-
-		public Values(boolean explicit) {
-			interval = new Interval();
-			intervalExplicit = explicit;
-
-			baseWave = new Waveform();
-			baseFreq = 500.0f;
-			baseAmpl = 50.0f;
-			baseWaveExplicit = explicit;
-			baseFreqExplicit = explicit;
-			baseAmplExplicit = explicit;
-
-			fmodWave = new Waveform();
-			fmodFreq = 1.0f;
-			fmodAmpl = 0.0f;
-			fmodWaveExplicit = explicit;
-			fmodFreqExplicit = explicit;
-			fmodAmplExplicit = explicit;
-
-			amod1Wave = new Waveform();
-			amod1Freq = 1.0f;
-			amod1Ampl = 0.0f;
-			amod1WaveExplicit = explicit;
-			amod1FreqExplicit = explicit;
-			amod1AmplExplicit = explicit;
-
-			amod2Wave = new Waveform();
-			amod2Freq = 1.0f;
-			amod2Ampl = 0.0f;
-			amod2WaveExplicit = explicit;
-			amod2FreqExplicit = explicit;
-			amod2AmplExplicit = explicit;
-		}
-
-		public boolean isExplicit(int i) {
-			switch (i) {
-				case 0  : return intervalExplicit;
-				case 1  : return baseWaveExplicit;
-				case 2  : return baseFreqExplicit;
-				case 3  : return baseAmplExplicit;
-				case 4  : return fmodWaveExplicit;
-				case 5  : return fmodFreqExplicit;
-				case 6  : return fmodAmplExplicit;
-				case 7  : return amod1WaveExplicit;
-				case 8  : return amod1FreqExplicit;
-				case 9  : return amod1AmplExplicit;
-				case 10 : return amod2WaveExplicit;
-				case 11 : return amod2FreqExplicit;
-				case 12 : return amod2AmplExplicit;
-				default : return true;
-			}
-		}
-
-		public void setExplicit(int i, boolean v) {
-			switch (i) {
-				case 0  : intervalExplicit = v; break;
-				case 1  : baseWaveExplicit = v; break;
-				case 2  : baseFreqExplicit = v; break;
-				case 3  : baseAmplExplicit = v; break;
-				case 4  : fmodWaveExplicit = v; break;
-				case 5  : fmodFreqExplicit = v; break;
-				case 6  : fmodAmplExplicit = v; break;
-				case 7  : amod1WaveExplicit = v; break;
-				case 8  : amod1FreqExplicit = v; break;
-				case 9  : amod1AmplExplicit = v; break;
-				case 10 : amod2WaveExplicit = v; break;
-				case 11 : amod2FreqExplicit = v; break;
-				case 12 : amod2AmplExplicit = v; break;
-			}
-		}
-
-		public Object getValue(int i) {
-			switch (i) {
-				case 0  : return interval;
-				case 1  : return baseWave;
-				case 2  : return baseFreq;
-				case 3  : return baseAmpl;
-				case 4  : return fmodWave;
-				case 5  : return fmodFreq;
-				case 6  : return fmodAmpl;
-				case 7  : return amod1Wave;
-				case 8  : return amod1Freq;
-				case 9  : return amod1Ampl;
-				case 10 : return amod2Wave;
-				case 11 : return amod2Freq;
-				case 12 : return amod2Ampl;
-				default : return null;
-			}
-		}
-
-		public void setValue(int i, Object v) {
-			switch (i) {
-				case 0  : interval = (Interval)v; break;
-				case 1  : baseWave = (Waveform)v; break;
-				case 2  : baseFreq = Math.max(0.0f, Math.min(10000.0f, ((Float)v).floatValue())); break;
-				case 3  : baseAmpl = Math.max(0.0f, Math.min(100.0f, ((Float)v).floatValue())); break;
-				case 4  : fmodWave = (Waveform)v; break;
-				case 5  : fmodFreq = Math.max(0.0f, Math.min(10000.0f, ((Float)v).floatValue())); break;
-				case 6  : fmodAmpl = Math.max(-10000.0f, Math.min(10000.0f, ((Float)v).floatValue())); break;
-				case 7  : amod1Wave = (Waveform)v; break;
-				case 8  : amod1Freq = Math.max(0.0f, Math.min(10000.0f, ((Float)v).floatValue())); break;
-				case 9  : amod1Ampl = Math.max(-100.0f, Math.min(100.0f, ((Float)v).floatValue())); break;
-				case 10 : amod2Wave = (Waveform)v; break;
-				case 11 : amod2Freq = Math.max(0.0f, Math.min(10000.0f, ((Float)v).floatValue())); break;
-				case 12 : amod2Ampl = Math.max(-100.0f, Math.min(100.0f, ((Float)v).floatValue())); break;
-			}
-		}
-	}
 }
 
 
-
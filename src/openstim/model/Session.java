@@ -1,10 +1,12 @@
 
 package openstim.model;
 
+import javax.sound.sampled.AudioFormat;
 import javax.swing.ProgressMonitor;
 
 public interface Session {
 	public SessionStream getStream(int sampleRate, int sampleSize, int channels, ProgressMonitor monitor);
+	public SessionStream getStream(AudioFormat format, ProgressMonitor monitor);
 }
 
 
@@ -7,12 +7,15 @@ import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 
 public abstract class SessionStream extends AudioInputStream {
+	private State markState = null;
+	private boolean parallel = true;
+
 	public SessionStream(int sampleRate, int sampleSize, int channels) {
-		super(
-			null,
-			new AudioFormat(sampleRate, sampleSize, channels, true, false),
-			AudioSystem.NOT_SPECIFIED
-		);
+		this(new AudioFormat(sampleRate, sampleSize, channels, true, false));
+	}
+
+	public SessionStream(AudioFormat format) {
+		super(null, format, AudioSystem.NOT_SPECIFIED);
 	}
 
 	@Override
@@ -25,14 +28,19 @@ public abstract class SessionStream extends AudioInputStream {
 		// nothing to do
 	}
 
+	/**
+	* Remember the complete synthesis state, the limit does not apply
+	* since nothing has to be buffered.
+	*/
+
 	@Override
 	public void mark(int limit) {
-		// mark is not supported
+		markState = getState();
 	}
 
 	@Override
 	public boolean markSupported() {
-		return false;
+		return true;
 	}
 
 	@Override
@@ -47,18 +55,79 @@ public abstract class SessionStream extends AudioInputStream {
 
 	@Override
 	public void reset() throws IOException {
-		throw new IOException("reset() is not supported");
+		if (markState == null) throw new IOException("reset() without mark()");
+		setState(markState);
 	}
 
+	/**
+	* Skip whole frames by advancing the synthesis state, no samples are produced.
+	*/
+
 	@Override
 	public long skip(long n) throws IOException {
-		throw new IOException("skip(long) is not supported");
+		if (n <= 0) return 0;
+		return advance(n / frameSize) * frameSize;
 	}
 
+	/**
+	* Read whole frames without conversion, one array per output channel.
+	* Returns the number of frames read, or -1 at the end of the session.
+	*/
+
+	public abstract int read(float[][] buffer, int offset, int frames);
+
 	public abstract void rewind();
 	public abstract void seek(float t);
 	public abstract float currentTime();
 	public abstract float totalTime();
 	public abstract boolean isFinished();
+
+	/**
+	* Opaque snapshot of the position and synthesis state of a stream.
+	* A state can be restored into any stream of the same session and format,
+	* which then continues exactly as the stream it was taken from.
+	*/
+
+	public static interface State {
+		public long getFramePosition();
+	}
+
+	public abstract State getState();
+	public abstract void setState(State state);
+
+	/**
+	* Current position in frames.
+	*/
+
+	public abstract long getFramePosition();
+
+	/**
+	* Start frames of all tracks followed by the end frame of the session.
+	* Rendering restarts at these frames in the same way, whatever came before.
+	*/
+
+	public abstract long[] getTrackFrames();
+
+	/**
+	* Move forward by the given number of frames, keeping all synthesis state
+	* exactly as if the frames had been read. Returns the number of frames
+	* skipped, which is less only at the end of the session.
+	*/
+
+	public abstract long advance(long frames);
+
+	/**
+	* Whether channels may be rendered on the render pool, on by default.
+	* Callers which already keep the pool busy turn it off, since the
+	* channel work would only queue up behind their own.
+	*/
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
 }
 
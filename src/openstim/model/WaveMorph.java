@@ -0,0 +1,47 @@
+package openstim.model;
+
+/**
+* Stack of precomputed tables for morphing from one waveform to another.
+* Entry k holds the waveform interpolated at k / NUM_STEPS, positions in
+* between are played by crossfading the two neighbouring entries.
+*/
+
+final class WaveMorph {
+	public static final int NUM_STEPS = 4;
+
+	private final Waveform from;
+	private final Waveform to;
+	private final WaveTable[] stack;
+
+	public WaveMorph(Waveform from, Waveform to) {
+		this.from = from;
+		this.to = to;
+		if (from == to || from.toString().equals(to.toString())) {
+			stack = new WaveTable[] { from.getTable() };
+		} else {
+			stack = new WaveTable[NUM_STEPS + 1];
+			stack[0] = from.getTable();
+			stack[NUM_STEPS] = to.getTable();
+			for (int k = 1; k < NUM_STEPS; k++) {
+				final float t = (float)k / NUM_STEPS;
+				stack[k] = new Waveform(1.0f - t, from, t, to).getTable();
+			}
+		}
+	}
+
+	/**
+	* Check whether this morph was built for the given waveforms.
+	*/
+
+	public boolean matches(Waveform from, Waveform to) {
+		return (this.from == from && this.to == to);
+	}
+
+	public int size() {
+		return stack.length;
+	}
+
+	public WaveTable get(int k) {
+		return stack[k];
+	}
+}
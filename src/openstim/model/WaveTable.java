@@ -0,0 +1,99 @@
+package openstim.model;
+
+/**
+* Immutable set of rendered tables for one waveform specification.
+* Level 0 is the single cycle table as rendered, level k only contains the
+* harmonics up to NUM_SAMPLES/2 >> k. Instances are shared between threads
+* through the {@link WaveformCache}, the arrays must never be modified.
+*/
+
+public final class WaveTable {
+	public static final int NUM_LEVELS = 12;
+
+	private final String spec;
+	private final float[][] levels;
+
+	WaveTable(String spec, float[] samples) {
+		this.spec = spec;
+		this.levels = bandLimit(samples);
+	}
+
+	public String getSpec() {
+		return spec;
+	}
+
+	/**
+	* The single cycle table as rendered.
+	*/
+
+	public float[] getSamples() {
+		return levels[0];
+	}
+
+	public float[] getLevel(int level) {
+		return levels[level];
+	}
+
+	/**
+	* The table which can be played at the given frequency without aliasing.
+	*/
+
+	public float[] select(float freq, float sampleRate) {
+		return levels[level(freq, sampleRate)];
+	}
+
+	/**
+	* Select the level which can be played at the given frequency
+	* without producing harmonics above the nyquist frequency.
+	*/
+
+	public static int level(float freq, float sampleRate) {
+		final float harmonics = 0.5f * sampleRate / Math.abs(freq);
+		if (harmonics >= Waveform.NUM_SAMPLES / 2) return 0;
+		return Math.min(NUM_LEVELS - 1, Integer.numberOfLeadingZeros((int)harmonics) - 20);
+	}
+
+	/**
+	* Remove the upper harmonics of a table octave by octave.
+	* Levels which would not lose any harmonics share the table of the level below.
+	*/
+
+	private static float[][] bandLimit(float[] table) {
+		final int n = table.length;
+		final double[] re = new double[n];
+		final double[] im = new double[n];
+		for (int i = 0; i < n; i++) re[i] = table[i];
+		FFT.transform(re, im, false);
+
+		// highest harmonic which is actually present
+		double peak = 0.0;
+		for (int h = 1; h <= n/2; h++) peak = Math.max(peak, Math.hypot(re[h], im[h]));
+		int highest = 0;
+		for (int h = 1; h <= n/2; h++) {
+			if (Math.hypot(re[h], im[h]) > peak * 1e-6) highest = h;
+		}
+
+		final float[][] result = new float[NUM_LEVELS][];
+		result[0] = table;
+		final double[] lre = new double[n];
+		final double[] lim = new double[n];
+		for (int level = 1; level < NUM_LEVELS; level++) {
+			final int limit = (n / 2) >> level;
+			if (limit >= highest) {
+				result[level] = result[level-1];
+				continue;
+			}
+			System.arraycopy(re, 0, lre, 0, n);
+			System.arraycopy(im, 0, lim, 0, n);
+			for (int h = limit + 1; h <= n - limit - 1; h++) {
+				lre[h] = 0.0;
+				lim[h] = 0.0;
+			}
+			FFT.transform(lre, lim, true);
+			final float[] samples = new float[n];
+			for (int i = 0; i < n; i++) samples[i] = (float)(lre[i] / n);
+			result[level] = samples;
+		}
+		return result;
+	}
+}
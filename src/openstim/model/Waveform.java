@@ -32,8 +32,7 @@ public final class Waveform {
 	private final float[] weight;
 	private final float[] speed;
 	private final float[] phase;
-	private final float[] samples;
-	private boolean dirty;
+	private WaveTable table;
 	private String spec;
 
 	/**
@@ -45,11 +44,10 @@ public final class Waveform {
 		weight = new float[NUM_SHAPES];
 		speed = new float[NUM_SHAPES];
 		phase = new float[NUM_SHAPES];
-		samples = new float[NUM_SAMPLES];
 		Arrays.fill(weight, 0.5f);
 		shape[0] = Shape.SINE;
 		weight[0] = 1.0f;
-		dirty = true;
+		table = null;
 		spec = null;
 	}
 
@@ -62,8 +60,7 @@ public final class Waveform {
 		weight = Arrays.copyOf(other.weight, other.weight.length);
 		speed = Arrays.copyOf(other.speed, other.speed.length);
 		phase = Arrays.copyOf(other.phase, other.phase.length);
-		samples = new float[NUM_SAMPLES];
-		dirty = true;
+		table = null;
 		spec = null;
 	}
 
@@ -79,7 +76,7 @@ public final class Waveform {
 		Arrays.fill(speed, 0.0f);
 		Arrays.fill(phase, 0.0f);
 		weight[0] = 1.0f;
-		dirty = true;
+		table = null;
 		spec = null;
 		for (int i = 0; i < shapes.length; i++) {
 			if (i >= Waveform.NUM_SHAPES) throw new Exception(String.format("You defined %d shapes, but only %d shapes are supported.", shapes.length, Waveform.NUM_SHAPES));
@@ -125,7 +122,7 @@ public final class Waveform {
 
 	public void setShape(int i, Shape value) {
 		shape[i] = value;
-		dirty = true;
+		table = null;
 		spec = null;
 	}
 
@@ -135,7 +132,7 @@ public final class Waveform {
 
 	public void setWeight(int i, float value) {
 		weight[i] = value;
-		dirty = true;
+		table = null;
 		spec = null;
 	}
 
@@ -145,7 +142,7 @@ public final class Waveform {
 
 	public void setSpeed(int i, float value) {
 		speed[i] = value;
-		dirty = true;
+		table = null;
 		spec = null;
 	}
 
@@ -155,66 +152,84 @@ public final class Waveform {
 
 	public void setPhase(int i, float value) {
 		phase[i] = value;
-		dirty = true;
+		table = null;
 		spec = null;
 	}
 
+	/**
+	* The rendered single cycle table, shared with all equal waveforms.
+	* The returned array must not be modified.
+	*/
+
 	public float[] render() {
-		if (dirty) {
-			Arrays.fill(samples, 0.0f);
-			for (int i = 0; i < NUM_SHAPES; i++) {
-				if (shape[i] == null) continue;
-				float mult = (float)Math.pow(2.0, speed[i]);
-				switch (shape[i]) {
-					case NONE:
-						break;
-					case SINE:
-						for (int s = 0; s < NUM_SAMPLES; s++) {
-							double r = (double)s * mult / NUM_SAMPLES + phase[i];
-							samples[s] += Math.sin(r * 2.0 * Math.PI) * weight[i];
-						}
-						break;
-					case SQUARE:
-						for (int s = 0; s < NUM_SAMPLES; s++) {
-							int r = (int)(mult * s + phase[i] * NUM_SAMPLES) % NUM_SAMPLES;
-							samples[s] += (r < NUM_SAMPLES/2 ? weight[i] : -weight[i]);
-						}
-						break;
-					case TRIANGLE:
-						for (int s = 0; s < NUM_SAMPLES; s++) {
-							float r = (float)s * mult / NUM_SAMPLES + phase[i];
-							r = (r < 0.0 ? 1.0f - (Math.abs(r) % 1.0f) : r % 1.0f);
-							samples[s] += weight[i] * (r < 0.5f ? 1.0f - Math.abs(4.0f * r - 1.0f) : Math.abs(4.0f * r - 3.0f) - 1.0f);
-						}
-						break;
-					case BIPOLAR:
-						for (int s = 0; s < NUM_SAMPLES; s++) {
-							int r = (int)(mult * s * 6 / NUM_SAMPLES + phase[i] * 6) % 6;
-							samples[s] += (r == 1 ? weight[i] : r == 4 ? -weight[i] : 0.0f);
-						}
-						break;
-					case UNIPOLAR:
-						for (int s = 0; s < NUM_SAMPLES; s++) {
-							int r = (int)(mult * s * 6 / NUM_SAMPLES + phase[i] * 6) % 6;
-							samples[s] += (r == 1 ? weight[i] : 0.0f);
-						}
-						break;
-					case SAWTOOTH:
-						for (int s = 0; s < NUM_SAMPLES; s++) {
-							float r = (float)s * mult / NUM_SAMPLES + phase[i];
-							r = (r < 0.0 ? 1.0f - (Math.abs(r) % 1.0f) : r % 1.0f);
-							samples[s] += weight[i] * (r < 0.5f ? 2.0f * r : 2.0f * r - 2.0f);
-						}
-						break;
-				}
-			}
-			double rms = 0.0f;
-			for (int s = 0; s < NUM_SAMPLES; s++) {
-				rms += samples[s] * samples[s];
+		return getTable().getSamples();
+	}
+
+	/**
+	* The rendered tables including the band-limited levels.
+	* @see WaveformCache
+	*/
+
+	public WaveTable getTable() {
+		WaveTable result = table;
+		if (result == null) {
+			result = WaveformCache.lookup(this);
+			table = result;
+		}
+		return result;
+	}
+
+	/**
+	* Render a new single cycle table from the current parameters.
+	*/
+
+	float[] renderSamples() {
+		final float[] samples = new float[NUM_SAMPLES];
+		for (int i = 0; i < NUM_SHAPES; i++) {
+			if (shape[i] == null) continue;
+			float mult = (float)Math.pow(2.0, speed[i]);
+			switch (shape[i]) {
+				case NONE:
+					break;
+				case SINE:
+					for (int s = 0; s < NUM_SAMPLES; s++) {
+						double r = (double)s * mult / NUM_SAMPLES + phase[i];
+						samples[s] += Math.sin(r * 2.0 * Math.PI) * weight[i];
+					}
+					break;
+				case SQUARE:
+					for (int s = 0; s < NUM_SAMPLES; s++) {
+						int r = (int)(mult * s + phase[i] * NUM_SAMPLES) % NUM_SAMPLES;
+						samples[s] += (r < NUM_SAMPLES/2 ? weight[i] : -weight[i]);
+					}
+					break;
+				case TRIANGLE:
+					for (int s = 0; s < NUM_SAMPLES; s++) {
+						float r = (float)s * mult / NUM_SAMPLES + phase[i];
+						r = (r < 0.0 ? 1.0f - (Math.abs(r) % 1.0f) : r % 1.0f);
+						samples[s] += weight[i] * (r < 0.5f ? 1.0f - Math.abs(4.0f * r - 1.0f) : Math.abs(4.0f * r - 3.0f) - 1.0f);
+					}
+					break;
+				case BIPOLAR:
+					for (int s = 0; s < NUM_SAMPLES; s++) {
+						int r = (int)(mult * s * 6 / NUM_SAMPLES + phase[i] * 6) % 6;
+						samples[s] += (r == 1 ? weight[i] : r == 4 ? -weight[i] : 0.0f);
+					}
+					break;
+				case UNIPOLAR:
+					for (int s = 0; s < NUM_SAMPLES; s++) {
+						int r = (int)(mult * s * 6 / NUM_SAMPLES + phase[i] * 6) % 6;
+						samples[s] += (r == 1 ? weight[i] : 0.0f);
+					}
+					break;
+				case SAWTOOTH:
+					for (int s = 0; s < NUM_SAMPLES; s++) {
+						float r = (float)s * mult / NUM_SAMPLES + phase[i];
+						r = (r < 0.0 ? 1.0f - (Math.abs(r) % 1.0f) : r % 1.0f);
+						samples[s] += weight[i] * (r < 0.5f ? 2.0f * r : 2.0f * r - 2.0f);
+					}
+					break;
 			}
-			rms = Math.sqrt(rms / NUM_SAMPLES);
-			System.out.println(rms);
-			dirty = false;
 		}
 		return samples;
 	}
@@ -224,25 +239,63 @@ public final class Waveform {
 	*/
 
 	public Waveform(float s1, Waveform w1, float s2, Waveform w2) {
-		// TODO
-		this(w1);
-		//interpolate(s1, w1, s2, w2);
+		this();
+		interpolate(s1, w1, s2, w2);
 	}
 
+	/**
+	* Blend the parameters of two waveforms.
+	* Slots with the same shape (or only one shape) are interpolated directly.
+	* If the slots of both waveforms hold different shapes, the shape of the
+	* second waveform is faded in on a slot which is unused by both waveforms.
+	* Without such a slot the dominating waveform decides.
+	*/
+
 	public void interpolate(float s1, Waveform w1, float s2, Waveform w2) {
-		// TODO
+		if (w1 == this) w1 = new Waveform(w1);
+		if (w2 == this) w2 = new Waveform(w2);
+		int pending = 0;
+
 		for (int i = 0; i < NUM_SHAPES; i++) {
-			shape[i] = w1.shape[i];
-			weight[i] = w1.weight[i];
-			speed[i] = w1.speed[i];
-			phase[i] = w1.phase[i];
+			final Shape a = (w1.shape[i] == null ? Shape.NONE : w1.shape[i]);
+			final Shape b = (w2.shape[i] == null ? Shape.NONE : w2.shape[i]);
+			if (a == b) {
+				shape[i] = a;
+				weight[i] = s1 * w1.weight[i] + s2 * w2.weight[i];
+				speed[i] = s1 * w1.speed[i] + s2 * w2.speed[i];
+				phase[i] = s1 * w1.phase[i] + s2 * w2.phase[i];
+			} else if (b == Shape.NONE) {
+				assignSlot(i, w1, i, s1);
+			} else if (a == Shape.NONE) {
+				assignSlot(i, w2, i, s2);
+			} else {
+				assignSlot(i, w1, i, s1);
+				pending |= (1 << i);
+			}
+		}
+
+		for (int i = 0; i < NUM_SHAPES; i++) {
+			if ((pending & (1 << i)) == 0) continue;
+			int free = -1;
+			for (int j = 0; j < NUM_SHAPES && free < 0; j++) {
+				if (shape[j] == Shape.NONE) free = j;
+			}
+			if (free >= 0) {
+				assignSlot(free, w2, i, s2);
+			} else if (s2 > s1) {
+				assignSlot(i, w2, i, s2);
+			}
 		}
-		dirty = true;
+
+		table = null;
 		spec = null;
-		//for (int i = 0; i < params.length; i++) {
-		//	setParam(i, s1 * w1.getParam(i) + s2 * w2.getParam(i));
-		//}
-		//normalize();
+	}
+
+	private void assignSlot(int i, Waveform other, int j, float scale) {
+		shape[i] = (scale == 0.0f ? Shape.NONE : other.shape[j]);
+		weight[i] = scale * other.weight[j];
+		speed[i] = other.speed[j];
+		phase[i] = other.phase[j];
 	}
 
 	public Element toXML(Document doc) {
@@ -251,6 +304,16 @@ public final class Waveform {
 		return xml;
 	}
 
+	/**
+	* Counterpart of toXML.
+	*/
+
+	public static Waveform fromXML(Element xml) throws Exception {
+		Waveform result = new Waveform();
+		result.assign(xml.getAttribute("spec"));
+		return result;
+	}
+
 	@Override
 	public String toString() {
 		if (spec == null) {
@@ -0,0 +1,114 @@
+package openstim.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Interning cache for rendered waveform tables, keyed by the canonical spec
+* string of a waveform. Identical waveforms share one immutable table no
+* matter how many tracks use them. The least recently used tables are
+* evicted once the cache holds more than its capacity.
+* @see Waveform#toString
+*/
+
+public final class WaveformCache {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	private static int capacity = DEFAULT_CAPACITY;
+
+	private static final LinkedHashMap<String, WaveTable> tables = new LinkedHashMap<String, WaveTable>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, WaveTable> eldest) {
+			if (size() <= capacity) return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	};
+
+	private WaveformCache() {
+	}
+
+	/**
+	* Get the tables for the given waveform, rendering them on a miss.
+	*/
+
+	public static WaveTable lookup(Waveform waveform) {
+		final String spec = waveform.toString();
+		synchronized (tables) {
+			WaveTable table = tables.get(spec);
+			if (table != null) {
+				hits.incrementAndGet();
+				return table;
+			}
+		}
+
+		// render outside of the lock, if another thread was faster we use its table
+		misses.incrementAndGet();
+		WaveTable table = new WaveTable(spec, render(spec, waveform));
+		synchronized (tables) {
+			WaveTable other = tables.get(spec);
+			if (other != null) return other;
+			tables.put(spec, table);
+		}
+		return table;
+	}
+
+	/**
+	* Render the table from the spec itself, so that the table of a key does
+	* not depend on which waveform happened to be looked up first.
+	*/
+
+	private static float[] render(String spec, Waveform waveform) {
+		try {
+			Waveform canonical = new Waveform();
+			canonical.assign(spec);
+			return canonical.renderSamples();
+		} catch (Exception e) {
+			return waveform.renderSamples();
+		}
+	}
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	public static long getEvictions() {
+		return evictions.get();
+	}
+
+	public static int size() {
+		synchronized (tables) {
+			return tables.size();
+		}
+	}
+
+	public static int getCapacity() {
+		synchronized (tables) {
+			return capacity;
+		}
+	}
+
+	public static void setCapacity(int value) {
+		synchronized (tables) {
+			capacity = Math.max(1, value);
+			while (tables.size() > capacity) {
+				tables.remove(tables.keySet().iterator().next());
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	public static void clear() {
+		synchronized (tables) {
+			tables.clear();
+		}
+	}
+}
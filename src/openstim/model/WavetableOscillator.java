@@ -0,0 +1,219 @@
+package openstim.model;
+
+/**
+* Phase accumulator oscillator reading single cycle tables as produced by
+* {@link Waveform#render()}. The phase is a 32 bit fixed point value, its
+* upper bits select the table entry and the remaining bits are used for
+* interpolation. Table lengths have to be a power of two.
+*/
+
+public final class WavetableOscillator {
+	public static enum Interpolation {
+		TRUNCATE("No interpolation"),
+		LINEAR("Linear interpolation"),
+		CUBIC("Cubic interpolation");
+
+		private final String name;
+		private Interpolation(String name) { this.name = name; }
+		@Override public String toString() { return name; }
+	}
+
+	private final float sampleRate;
+	private final double incScale;
+	private Interpolation interpolation;
+	private int phase;
+	private float[] scratch;
+
+	public WavetableOscillator(float sampleRate) {
+		this(sampleRate, Interpolation.LINEAR);
+	}
+
+	public WavetableOscillator(float sampleRate, Interpolation interpolation) {
+		this.sampleRate = sampleRate;
+		this.incScale = 4294967296.0 / sampleRate;
+		this.interpolation = interpolation;
+		this.phase = 0;
+	}
+
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	public Interpolation getInterpolation() {
+		return interpolation;
+	}
+
+	public void setInterpolation(Interpolation value) {
+		interpolation = value;
+	}
+
+	public int getPhase() {
+		return phase;
+	}
+
+	public void setPhase(int value) {
+		phase = value;
+	}
+
+	public void reset() {
+		phase = 0;
+	}
+
+	/**
+	* Phase increment per sample for the given frequency.
+	*/
+
+	public int increment(float freq) {
+		return (int)(long)(freq * incScale);
+	}
+
+	/**
+	* Fill a block with a constant frequency.
+	*/
+
+	public void nextBlock(float[] out, int offset, int length, float[] table, float freq) {
+		final int inc = increment(freq);
+		final int shift = Integer.numberOfLeadingZeros(table.length) + 1;
+		final int mask = table.length - 1;
+		final int fracMask = (1 << shift) - 1;
+		final float fracScale = 1.0f / (1 << shift);
+		final int end = offset + length;
+		int p = phase;
+
+		switch (interpolation) {
+			case TRUNCATE:
+				for (int i = offset; i < end; i++, p += inc) {
+					out[i] = table[p >>> shift];
+				}
+				break;
+			case LINEAR:
+				for (int i = offset; i < end; i++, p += inc) {
+					final int idx = p >>> shift;
+					final float y = table[idx];
+					out[i] = y + (table[(idx + 1) & mask] - y) * ((p & fracMask) * fracScale);
+				}
+				break;
+			case CUBIC:
+				for (int i = offset; i < end; i++, p += inc) {
+					final int idx = p >>> shift;
+					out[i] = cubic(table, idx, mask, (p & fracMask) * fracScale);
+				}
+				break;
+		}
+
+		phase = p;
+	}
+
+	/**
+	* Fill a block with a frequency per sample, e.g. for frequency modulation.
+	* The frequencies are taken from the same positions as the output samples.
+	*/
+
+	public void nextBlock(float[] out, int offset, int length, float[] table, float[] freq) {
+		final double scale = incScale;
+		final int shift = Integer.numberOfLeadingZeros(table.length) + 1;
+		final int mask = table.length - 1;
+		final int fracMask = (1 << shift) - 1;
+		final float fracScale = 1.0f / (1 << shift);
+		final int end = offset + length;
+		int p = phase;
+
+		switch (interpolation) {
+			case TRUNCATE:
+				for (int i = offset; i < end; i++) {
+					out[i] = table[p >>> shift];
+					p += (int)(long)(freq[i] * scale);
+				}
+				break;
+			case LINEAR:
+				for (int i = offset; i < end; i++) {
+					final int idx = p >>> shift;
+					final float y = table[idx];
+					out[i] = y + (table[(idx + 1) & mask] - y) * ((p & fracMask) * fracScale);
+					p += (int)(long)(freq[i] * scale);
+				}
+				break;
+			case CUBIC:
+				for (int i = offset; i < end; i++) {
+					final int idx = p >>> shift;
+					out[i] = cubic(table, idx, mask, (p & fracMask) * fracScale);
+					p += (int)(long)(freq[i] * scale);
+				}
+				break;
+		}
+
+		phase = p;
+	}
+
+	/**
+	* Advance the phase exactly as nextBlock with the same frequencies would,
+	* without reading any table.
+	*/
+
+	public void skip(float[] freq, int offset, int length) {
+		final double scale = incScale;
+		int p = phase;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			p += (int)(long)(freq[i] * scale);
+		}
+		phase = p;
+	}
+
+	/**
+	* Fill a block with a constant frequency from the band-limited tables.
+	*/
+
+	public void nextBlock(float[] out, int offset, int length, WaveTable table, float freq) {
+		nextBlock(out, offset, length, table.select(freq, sampleRate), freq);
+	}
+
+	/**
+	* Fill a block with a frequency per sample from the band-limited tables.
+	* The level is chosen for the highest frequency within the block.
+	*/
+
+	public void nextBlock(float[] out, int offset, int length, WaveTable table, float[] freq) {
+		nextBlock(out, offset, length, table.select(peak(freq, offset, length), sampleRate), freq);
+	}
+
+	/**
+	* Fill a block crossfading between two tables read at the same phase.
+	* The mix holds the weight of the second table for every sample.
+	*/
+
+	public void nextBlock(float[] out, int offset, int length, WaveTable from, WaveTable to, float[] mix, float[] freq) {
+		final int level = WaveTable.level(peak(freq, offset, length), sampleRate);
+		final int end = offset + length;
+		if (scratch == null || scratch.length < end) scratch = new float[end];
+		final int start = phase;
+		nextBlock(scratch, offset, length, to.getLevel(level), freq);
+		phase = start;
+		nextBlock(out, offset, length, from.getLevel(level), freq);
+		for (int i = offset; i < end; i++) {
+			out[i] += (scratch[i] - out[i]) * mix[i];
+		}
+	}
+
+	private static float peak(float[] freq, int offset, int length) {
+		float result = 0.0f;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			result = Math.max(result, Math.abs(freq[i]));
+		}
+		return result;
+	}
+
+	/**
+	* Catmull-Rom interpolation between table[idx] and table[idx+1].
+	*/
+
+	private static float cubic(float[] table, int idx, int mask, float f) {
+		final float y0 = table[(idx - 1) & mask];
+		final float y1 = table[idx];
+		final float y2 = table[(idx + 1) & mask];
+		final float y3 = table[(idx + 2) & mask];
+		final float c1 = 0.5f * (y2 - y0);
+		final float c2 = y0 - 2.5f * y1 + 2.0f * y2 - 0.5f * y3;
+		final float c3 = 0.5f * (y3 - y0) + 1.5f * (y1 - y2);
+		return ((c3 * f + c2) * f + c1) * f + y1;
+	}
+}